@@ -0,0 +1,408 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.function.LongSupplier;
+
+/// Micro-benchmarks for the move generator, the evaluation and the search,
+/// run the way JMH runs them but with nothing beyond the JDK: each benchmark
+/// is warmed up, then timed for a number of iterations, in one or more
+/// freshly started JVMs (forks) so that one run's JIT decisions do not
+/// decide the result.
+///
+/// Every benchmark runs over the same positions: the start position and the
+/// positions reached by playing seeded random moves from it.
+///
+/// Results are written as CSV, one row per benchmark. Given a baseline file
+/// from an earlier run, any benchmark that got slower by more than the
+/// threshold is reported and the exit status is 2.
+class Benchmark
+{
+	int m_warmup = 3;
+	int m_iterations = 5;
+	int m_forks = 1;
+	long m_iterationMillis = 500;
+	/// Only benchmarks whose name contains this are run
+	String m_filter = "";
+	String m_outFile = null;
+	String m_baselineFile = null;
+	/// Allowed slowdown against the baseline, as a fraction
+	double m_threshold = 0.10;
+	/// Set in a forked JVM: print raw samples for the parent instead of a report
+	boolean m_child = false;
+
+	ChessState[] m_positions;
+	boolean[] m_whiteToMove;
+	/// Keeps the JIT from discarding the work being timed
+	static volatile long s_sink;
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		Benchmark bench = new Benchmark();
+		try
+		{
+			bench.parse(args);
+		} catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		bench.makePositions();
+		if (bench.m_child)
+		{
+			bench.runSamples(System.out);
+			return;
+		}
+		System.exit(bench.run());
+	}
+
+	void parse(String[] args)
+	{
+		for (int i = 0; i < args.length; i++)
+		{
+			String name = args[i];
+			if (name.equals("--child"))
+			{
+				m_child = true;
+				continue;
+			}
+			if (i + 1 >= args.length)
+			{ throw new IllegalArgumentException("Option " + name + " needs a value"); }
+			String value = args[++ i];
+			try
+			{
+				switch (name)
+				{
+					case "--warmup":
+						m_warmup = Integer.parseInt(value);
+						break;
+					case "--iterations":
+						m_iterations = Integer.parseInt(value);
+						break;
+					case "--forks":
+						m_forks = Integer.parseInt(value);
+						break;
+					case "--time":
+						m_iterationMillis = Long.parseLong(value);
+						break;
+					case "--bench":
+						m_filter = value;
+						break;
+					case "--out":
+						m_outFile = value;
+						break;
+					case "--baseline":
+						m_baselineFile = value;
+						break;
+					case "--threshold":
+						m_threshold = Double.parseDouble(value) / 100;
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown option " + name);
+				}
+			} catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Option " + name + " must be a number.");
+			}
+		}
+		if (m_iterations < 1 || m_warmup < 0 || m_forks < 0 || m_iterationMillis < 1)
+		{ throw new IllegalArgumentException("--iterations and --time must be positive, --warmup and --forks not negative"); }
+	}
+
+	/// The start position, and the positions 8, 16, 24 and 32 plies into a
+	/// game of seeded random moves
+	void makePositions()
+	{
+		ArrayList<ChessState> positions = new ArrayList<ChessState>();
+		ArrayList<Boolean> sides = new ArrayList<Boolean>();
+		ChessState board = new ChessState();
+		SplittableRandom rand = new SplittableRandom(20190412);
+		boolean white = true;
+		positions.add(new ChessState(board));
+		sides.add(white);
+		for (int ply = 1; ply <= 32; ply++)
+		{
+			ArrayList<ChessState.ChessMove> moves = new ArrayList<ChessState.ChessMove>();
+			ChessState.ChessMoveIterator it = board.iterator(white);
+			while (it.hasNext())
+			{ moves.add(it.next()); }
+			ChessState.ChessMove m = moves.get(rand.nextInt(moves.size()));
+			// Random play that takes a king would end the game, so skip such moves
+			if (board.getPiece(m.xDest, m.yDest) == ChessState.King)
+			{ continue; }
+			board.move(m.xSource, m.ySource, m.xDest, m.yDest);
+			white = ! white;
+			if (ply % 8 == 0)
+			{
+				positions.add(new ChessState(board));
+				sides.add(white);
+			}
+		}
+		m_positions = positions.toArray(new ChessState[0]);
+		m_whiteToMove = new boolean[sides.size()];
+		for (int i = 0; i < m_whiteToMove.length; i++)
+		{ m_whiteToMove[i] = sides.get(i); }
+	}
+
+	/// The benchmarks by name. Each call does one operation over every position
+	/// and returns a checksum of the results.
+	Map<String, LongSupplier> benchmarks()
+	{
+		Map<String, LongSupplier> map = new LinkedHashMap<String, LongSupplier>();
+		SplittableRandom rand = new SplittableRandom(1);
+		map.put("heuristic", () -> {
+			long sum = 0;
+			for (ChessState board : m_positions)
+			{ sum += board.heuristic(rand); }
+			return sum;
+		});
+		map.put("moves", () -> {
+			long sum = 0;
+			for (ChessState board : m_positions)
+			{
+				for (int sq = 0; sq < 64; sq++)
+				{
+					if (board.getPiece(sq & 7, sq >> 3) != ChessState.None)
+					{ sum += board.moves(sq & 7, sq >> 3).size(); }
+				}
+			}
+			return sum;
+		});
+		map.put("isValidMove", () -> {
+			long sum = 0;
+			for (ChessState board : m_positions)
+			{
+				for (int from = 0; from < 64; from++)
+				{
+					for (int to = 0; to < 64; to++)
+					{
+						if (board.isValidMove(from & 7, from >> 3, to & 7, to >> 3))
+						{ sum++; }
+					}
+				}
+			}
+			return sum;
+		});
+		map.put("iterator", () -> {
+			long sum = 0;
+			for (int i = 0; i < m_positions.length; i++)
+			{
+				ChessState.ChessMoveIterator it = m_positions[i].iterator(m_whiteToMove[i]);
+				while (it.hasNext())
+				{ sum += it.next().yDest; }
+			}
+			return sum;
+		});
+		int[] buf = new int[ChessSearch.MAX_MOVES];
+		map.put("generateMoves", () -> {
+			long sum = 0;
+			for (int i = 0; i < m_positions.length; i++)
+			{
+				int count = m_positions[i].generateMoves(m_whiteToMove[i], buf);
+				for (int j = 0; j < count; j++)
+				{ sum += buf[j]; }
+			}
+			return sum;
+		});
+		map.put("generateCaptures", () -> {
+			long sum = 0;
+			for (int i = 0; i < m_positions.length; i++)
+			{
+				int count = m_positions[i].generateCaptures(m_whiteToMove[i], buf);
+				for (int j = 0; j < count; j++)
+				{ sum += buf[j]; }
+			}
+			return sum;
+		});
+		map.put("copy", () -> {
+			long sum = 0;
+			for (ChessState board : m_positions)
+			{ sum += new ChessState(board).m_hash; }
+			return sum;
+		});
+		for (int depth = 2; depth <= 4; depth++)
+		{
+			int d = depth;
+			ChessSearch search = new ChessSearch(new TranspositionTable(1, TranspositionTable.DEPTH_PREFERRED));
+			map.put("alphabeta" + depth, () -> {
+				long sum = 0;
+				search.setSeed(1);
+				for (int i = 0; i < m_positions.length; i++)
+				{
+					int[] result = search.alphabeta(d, new ChessState(m_positions[i]), m_whiteToMove[i], - ChessSearch.INFINITY, ChessSearch.INFINITY, new PositionHistory());
+					sum += result[0];
+				}
+				return sum;
+			});
+		}
+		map.keySet().removeIf(name -> ! name.contains(m_filter));
+		return map;
+	}
+
+	/// Runs every benchmark in this JVM and prints one line per timed
+	/// iteration: the benchmark name and the nanoseconds per operation
+	void runSamples(PrintStream out)
+	{
+		for (Map.Entry<String, LongSupplier> e : benchmarks().entrySet())
+		{
+			LongSupplier op = e.getValue();
+			for (int i = 0; i < m_warmup; i++)
+			{ iteration(op); }
+			for (int i = 0; i < m_iterations; i++)
+			{ out.println(e.getKey() + "," + iteration(op)); }
+			out.flush();
+		}
+	}
+
+	/// Calls op for m_iterationMillis and returns the mean nanoseconds per call
+	private double iteration(LongSupplier op)
+	{
+		long sink = 0;
+		long calls = 0;
+		long start = System.nanoTime();
+		long end = start + m_iterationMillis * 1000000;
+		long now;
+		do
+		{
+			sink += op.getAsLong();
+			calls++;
+			now = System.nanoTime();
+		} while (now < end);
+		s_sink = sink;
+		return (double) (now - start) / calls;
+	}
+
+	/// Collects the samples from every fork, writes the report and compares it
+	/// against the baseline. Returns the exit status.
+	int run() throws IOException, InterruptedException
+	{
+		Map<String, List<Double>> samples = new LinkedHashMap<String, List<Double>>();
+		if (m_forks == 0)
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			runSamples(new PrintStream(bytes));
+			addSamples(samples, new Scanner(bytes.toString()));
+		}
+		for (int fork = 0; fork < m_forks; fork++)
+		{
+			System.err.println("Fork " + (fork + 1) + " of " + m_forks);
+			addSamples(samples, new Scanner(fork()));
+		}
+
+		StringBuilder csv = new StringBuilder("benchmark,mean_ns,stddev_ns,min_ns,max_ns,samples\n");
+		Map<String, Double> means = new LinkedHashMap<String, Double>();
+		for (Map.Entry<String, List<Double>> e : samples.entrySet())
+		{
+			List<Double> values = e.getValue();
+			double sum = 0;
+			double min = Double.MAX_VALUE;
+			double max = 0;
+			for (double v : values)
+			{
+				sum += v;
+				min = Math.min(min, v);
+				max = Math.max(max, v);
+			}
+			double mean = sum / values.size();
+			double squares = 0;
+			for (double v : values)
+			{ squares += (v - mean) * (v - mean); }
+			double stddev = values.size() > 1 ? Math.sqrt(squares / (values.size() - 1)) : 0;
+			means.put(e.getKey(), mean);
+			csv.append(String.format(Locale.ROOT, "%s,%.1f,%.1f,%.1f,%.1f,%d%n", e.getKey(), mean, stddev, min, max, values.size()));
+		}
+		System.out.print(csv);
+		if (m_outFile != null)
+		{
+			try (PrintStream out = new PrintStream(m_outFile))
+			{ out.print(csv); }
+		}
+		return m_baselineFile == null ? 0 : compare(means);
+	}
+
+	/// Runs the samples in a new JVM with the same class path and returns its output
+	private String fork() throws IOException, InterruptedException
+	{
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ArrayList<String> command = new ArrayList<String>();
+		command.add(java);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("Benchmark");
+		command.add("--child");
+		command.add("--warmup");
+		command.add("" + m_warmup);
+		command.add("--iterations");
+		command.add("" + m_iterations);
+		command.add("--time");
+		command.add("" + m_iterationMillis);
+		command.add("--bench");
+		command.add(m_filter);
+		Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		StringBuilder output = new StringBuilder();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream())))
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{ output.append(line).append('\n'); }
+		}
+		if (process.waitFor() != 0)
+		{ throw new IOException("A benchmark fork exited with status " + process.exitValue()); }
+		return output.toString();
+	}
+
+	private static void addSamples(Map<String, List<Double>> samples, Scanner sc)
+	{
+		while (sc.hasNextLine())
+		{
+			String[] fields = sc.nextLine().split(",");
+			if (fields.length == 2)
+			{ samples.computeIfAbsent(fields[0], k -> new ArrayList<Double>()).add(Double.parseDouble(fields[1])); }
+		}
+	}
+
+	/// Prints each benchmark's change against the baseline and returns 2 if
+	/// any got slower by more than the threshold
+	private int compare(Map<String, Double> means) throws FileNotFoundException
+	{
+		Map<String, Double> baseline = new LinkedHashMap<String, Double>();
+		try (Scanner sc = new Scanner(new File(m_baselineFile)))
+		{
+			if (sc.hasNextLine())
+			{ sc.nextLine(); }
+			while (sc.hasNextLine())
+			{
+				String[] fields = sc.nextLine().split(",");
+				if (fields.length >= 2)
+				{ baseline.put(fields[0], Double.parseDouble(fields[1])); }
+			}
+		}
+		int status = 0;
+		System.out.println();
+		for (Map.Entry<String, Double> e : means.entrySet())
+		{
+			Double old = baseline.get(e.getKey());
+			if (old == null)
+			{
+				System.out.println(e.getKey() + ": not in the baseline");
+				continue;
+			}
+			double change = e.getValue() / old - 1;
+			boolean regressed = change > m_threshold;
+			if (regressed)
+			{ status = 2; }
+			System.out.printf("%s: %+.1f%%%s%n", e.getKey(), 100 * change, regressed ? "  REGRESSION" : "");
+		}
+		return status;
+	}
+}
@@ -0,0 +1,6 @@
+#!/bin/bash
+# Compiles the game and the benchmarks into bench/out
+mkdir -p out
+javac -d out ../src/*.java *.java
+#java -cp out Benchmark --forks 2 --out baseline.csv
+#java -cp out Benchmark --baseline baseline.csv --threshold 10
@@ -0,0 +1,175 @@
+/// Precomputed attack tables for the bitboard move generator. Squares are
+/// numbered row * 8 + col, so bit 0 is A1 and bit 63 is H8.
+final class Bitboards
+{
+	static final long[] KNIGHT_ATTACKS = new long[64];
+	static final long[] KING_ATTACKS = new long[64];
+	/// Indexed by [white ? 1 : 0][square]
+	static final long[][] PAWN_ATTACKS = new long[2][64];
+	static final long FILE_A = 0x0101010101010101L;
+	static final long FILE_H = FILE_A << 7;
+	/// Indexed by row
+	static final long[] ROWS = {0xFFL, 0xFFL << 8, 0xFFL << 16, 0xFFL << 24, 0xFFL << 32, 0xFFL << 40, 0xFFL << 48, 0xFFL << 56};
+
+	static final long[] ROOK_MASK = new long[64];
+	static final long[] BISHOP_MASK = new long[64];
+	/// Found offline by a random search; see fillMagicTable for the indexing
+	static final long[] ROOK_MAGIC = {
+			0x1280024000A08091L, 0x2440005001200240L, 0x5180200110008088L, 0x0500080520100100L,
+			0x0A00102802002084L, 0x1080020080010400L, 0x0400100208010084L, 0x0200022084004D02L,
+			0x1022800440002080L, 0x0408804004842001L, 0x0002004010820024L, 0x0001801800100080L,
+			0x1202802800800400L, 0x0002000200100408L, 0x0004000801100402L, 0x1101000082004100L,
+			0x8000208000401080L, 0x0000808040002008L, 0x0220008010002088L, 0x0800120020420008L,
+			0x4204008008000482L, 0x0080080120400410L, 0x0880040001108802L, 0x820002001C208041L,
+			0x104000258008804AL, 0x2820008280400025L, 0x4000220200104080L, 0xC240080080100080L,
+			0x0000080080040080L, 0x0000A00801044010L, 0x1201000100020004L, 0x0000008200005411L,
+			0xA010400020800081L, 0x0010004000402000L, 0x2000402001001102L, 0x8010000800801080L,
+			0x0180800402800800L, 0x0203000803000400L, 0x1600010204000810L, 0x4404008042000104L,
+			0x0000804000208000L, 0x2010004020044009L, 0x2D10002000808010L, 0x0000100009010021L,
+			0x0004008040080800L, 0x000E001020040400L, 0x7000040200010100L, 0x4002204899020004L,
+			0x6000220041009200L, 0x0201804000A00280L, 0x0800200010008080L, 0x0022004010082200L,
+			0x200C000480080080L, 0x1004000201004040L, 0x0115120810011400L, 0x0004005124008200L,
+			0x0400800223001841L, 0x9000400018810025L, 0x0400200100100841L, 0x0221208439001001L,
+			0x0002000820051082L, 0x1827001284002811L, 0x0C08100122009804L, 0x2000008100340042L
+	};
+	static final long[] BISHOP_MAGIC = {
+			0x0042023021120880L, 0x182181040C828001L, 0x10D0440061400011L, 0x4009041500002000L,
+			0x3408484009000826L, 0x6400821040002820L, 0xC00200B008080000L, 0x2104240104100240L,
+			0x0001082801084600L, 0x8190100428008C20L, 0x1010041434004010L, 0x0100082090200010L,
+			0x0400011040010400L, 0x000008C808400010L, 0x01021A0202200401L, 0x0000054608011800L,
+			0x0290204002280160L, 0x5008024218882080L, 0x3004044080220140L, 0x20042208042300A9L,
+			0x0022040401210202L, 0xA012001411008802L, 0x0880800208040202L, 0x1001888042189000L,
+			0x0808400020040100L, 0x0C21848010040800L, 0x0900240298204400L, 0x0A44040000401081L,
+			0x0405001005004000L, 0x341A008204100090L, 0x1008014002051491L, 0x050085100A084A00L,
+			0x0130020820200900L, 0xC600846000040882L, 0x4000240100B0010DL, 0x0081020084080080L,
+			0xC018610040040040L, 0x0020042100A02083L, 0x0202120240040C10L, 0x00080B1108004240L,
+			0x680402A010000400L, 0x2144008410080482L, 0x0248420041009000L, 0x0004804200840808L,
+			0x1082280704000040L, 0x0260200048800244L, 0x001004090C100040L, 0x4004290424200100L,
+			0x8004021190080808L, 0x000200B404020048L, 0x00085100A0902804L, 0x202A20072A080001L,
+			0x00401009102400A8L, 0x0120C83010008402L, 0x10841004A1040000L, 0x1120023400408200L,
+			0x8000108808029004L, 0x0860824124012000L, 0x8002000A004C1200L, 0x402004882042020CL,
+			0x0428010010220220L, 0x3400204208411100L, 0xC090242004450222L, 0x1002200444004040L
+	};
+	static final int[] ROOK_SHIFT = new int[64];
+	static final int[] BISHOP_SHIFT = new int[64];
+	static final long[][] ROOK_ATTACKS = new long[64][];
+	static final long[][] BISHOP_ATTACKS = new long[64][];
+
+	private static final int[][] ROOK_DIRECTIONS = {{1, 0}, {- 1, 0}, {0, 1}, {0, - 1}};
+	private static final int[][] BISHOP_DIRECTIONS = {{1, 1}, {- 1, 1}, {1, - 1}, {- 1, - 1}};
+
+	static
+	{
+		for (int sq = 0; sq < 64; sq++)
+		{
+			int col = sq & 7;
+			int row = sq >> 3;
+			KNIGHT_ATTACKS[sq] = leaperAttacks(col, row, new int[][]{{2, 1}, {1, 2}, {- 1, 2}, {- 2, 1}, {- 2, - 1}, {- 1, - 2}, {1, - 2}, {2, - 1}});
+			KING_ATTACKS[sq] = leaperAttacks(col, row, new int[][]{{1, 0}, {1, 1}, {0, 1}, {- 1, 1}, {- 1, 0}, {- 1, - 1}, {0, - 1}, {1, - 1}});
+			PAWN_ATTACKS[1][sq] = leaperAttacks(col, row, new int[][]{{1, 1}, {- 1, 1}});
+			PAWN_ATTACKS[0][sq] = leaperAttacks(col, row, new int[][]{{1, - 1}, {- 1, - 1}});
+		}
+		for (int sq = 0; sq < 64; sq++)
+		{
+			ROOK_MASK[sq] = relevantMask(sq, ROOK_DIRECTIONS);
+			BISHOP_MASK[sq] = relevantMask(sq, BISHOP_DIRECTIONS);
+			ROOK_SHIFT[sq] = 64 - Long.bitCount(ROOK_MASK[sq]);
+			BISHOP_SHIFT[sq] = 64 - Long.bitCount(BISHOP_MASK[sq]);
+			ROOK_ATTACKS[sq] = fillMagicTable(sq, ROOK_DIRECTIONS, ROOK_MASK[sq], ROOK_MAGIC[sq], ROOK_SHIFT[sq]);
+			BISHOP_ATTACKS[sq] = fillMagicTable(sq, BISHOP_DIRECTIONS, BISHOP_MASK[sq], BISHOP_MAGIC[sq], BISHOP_SHIFT[sq]);
+		}
+	}
+
+	private Bitboards()
+	{
+	}
+
+	static long rookAttacks(int sq, long occupied)
+	{
+		return ROOK_ATTACKS[sq][(int) (((occupied & ROOK_MASK[sq]) * ROOK_MAGIC[sq]) >>> ROOK_SHIFT[sq])];
+	}
+
+	static long bishopAttacks(int sq, long occupied)
+	{
+		return BISHOP_ATTACKS[sq][(int) (((occupied & BISHOP_MASK[sq]) * BISHOP_MAGIC[sq]) >>> BISHOP_SHIFT[sq])];
+	}
+
+	static long queenAttacks(int sq, long occupied)
+	{
+		return rookAttacks(sq, occupied) | bishopAttacks(sq, occupied);
+	}
+
+	private static long leaperAttacks(int col, int row, int[][] offsets)
+	{
+		long bb = 0;
+		for (int[] d : offsets)
+		{
+			int c = col + d[0];
+			int r = row + d[1];
+			if (c >= 0 && c < 8 && r >= 0 && r < 8)
+			{ bb |= 1L << (r * 8 + c); }
+		}
+		return bb;
+	}
+
+	/// The squares whose occupancy can change the attacks of a slider on sq.
+	/// The last square of each ray is left out because it is attacked either way.
+	private static long relevantMask(int sq, int[][] directions)
+	{
+		long bb = 0;
+		for (int[] d : directions)
+		{
+			int c = (sq & 7) + d[0];
+			int r = (sq >> 3) + d[1];
+			while (c + d[0] >= 0 && c + d[0] < 8 && r + d[1] >= 0 && r + d[1] < 8)
+			{
+				bb |= 1L << (r * 8 + c);
+				c += d[0];
+				r += d[1];
+			}
+		}
+		return bb;
+	}
+
+	/// Walks the rays one square at a time. Only used to fill the magic tables.
+	private static long slowAttacks(int sq, long occupied, int[][] directions)
+	{
+		long bb = 0;
+		for (int[] d : directions)
+		{
+			int c = (sq & 7) + d[0];
+			int r = (sq >> 3) + d[1];
+			while (c >= 0 && c < 8 && r >= 0 && r < 8)
+			{
+				long bit = 1L << (r * 8 + c);
+				bb |= bit;
+				if ((occupied & bit) != 0)
+				{ break; }
+				c += d[0];
+				r += d[1];
+			}
+		}
+		return bb;
+	}
+
+	/// Maps every occupancy subset of the mask through the magic multiplier
+	/// and stores the attacks for it. Two subsets may only share a slot if
+	/// they produce the same attacks.
+	private static long[] fillMagicTable(int sq, int[][] directions, long mask, long magic, int shift)
+	{
+		long[] table = new long[1 << (64 - shift)];
+		boolean[] used = new boolean[table.length];
+		long subset = 0;
+		do
+		{
+			long attacks = slowAttacks(sq, subset, directions);
+			int index = (int) ((subset * magic) >>> shift);
+			if (used[index] && table[index] != attacks)
+			{ throw new RuntimeException("bad magic for square " + sq); }
+			used[index] = true;
+			table[index] = attacks;
+			subset = (subset - mask) & mask;
+		} while (subset != 0);
+		return table;
+	}
+}
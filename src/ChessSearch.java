@@ -0,0 +1,771 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/// Alpha-beta search over a ChessState. A ChessSearch owns one move buffer per
+/// ply and plays moves in place on a single copy of the root board, so the
+/// search itself does not allocate. Reuse one instance for every move of a
+/// game, so that each search starts from what the last one learned (see
+/// m_reuse); it is not safe to share between threads.
+class ChessSearch
+{
+	public static final int MAX_PLY = 64;
+	public static final int MAX_MOVES = 16 * ChessState.MAX_PIECE_MOVES;
+	public static final int WIN_SCORE = 500000;
+	/// Bigger than any score, and safe to negate unlike Integer.MIN_VALUE
+	public static final int INFINITY = 2 * WIN_SCORE;
+	/// Half-width of the first aspiration window around the previous score
+	public static final int ASPIRATION_WINDOW = 15;
+	/// Score of a tablebase win, less the plies it takes. Below WIN_SCORE so
+	/// that taking the king on the board still counts for more.
+	public static final int TABLEBASE_WIN = WIN_SCORE - 1000;
+
+	// Move ordering scores: hash move, then captures and promotions by MVV-LVA,
+	// then the two killer moves, then quiet moves by history.
+	private static final int HASH_MOVE_SCORE = 1 << 30;
+	private static final int CAPTURE_SCORE = 1 << 24;
+	private static final int KILLER_SCORE = 1 << 22;
+	private static final int HISTORY_LIMIT = 1 << 20;
+	// The stages nextMove goes through
+	private static final int STAGE_HASH = 0;
+	private static final int STAGE_GENERATE_CAPTURES = 1;
+	private static final int STAGE_CAPTURES = 2;
+	private static final int STAGE_KILLERS = 3;
+	private static final int STAGE_GENERATE_QUIETS = 4;
+	private static final int STAGE_QUIETS = 5;
+	private static final int STAGE_DONE = 6;
+	/// Quiescence skips a capture that would leave the side to move this far
+	/// below alpha even after winning the piece
+	public static final int DELTA_MARGIN = 20;
+
+	/// What a call to search may spend. A value of 0 means no limit.
+	static class Limits
+	{
+		int depth;
+		long millis;
+		long nodes;
+
+		Limits(int depth, long millis, long nodes)
+		{
+			this.depth = depth;
+			this.millis = millis;
+			this.nodes = nodes;
+		}
+	}
+
+	int[][] m_moves;
+	/// Ordering score of each move in m_moves
+	int[][] m_moveScores;
+	/// The best move found at each ply of the current search, packed
+	int[] m_bestMove;
+	/// Two quiet moves per ply that recently caused a beta cutoff
+	int[][] m_killers;
+	/// Where nextMove is at each ply: its stage, the hash move, how many
+	/// moves are in m_moves, and the next move or killer to hand out
+	int[] m_stage;
+	int[] m_hashMove;
+	int[] m_moveCount;
+	int[] m_nextMove;
+	/// Indexed by [white ? 1 : 0][from * 64 + to]; grows when a quiet move cuts off
+	int[][] m_history;
+	TranspositionTable m_tt;
+	/// Counters for the current or last call to search
+	SearchStats m_stats = new SearchStats();
+	long m_nodeLimit;
+	/// System.nanoTime() at which to give up, or 0
+	long m_deadline;
+	/// Set once a limit is hit; every ply then unwinds without using its result
+	boolean m_stopped;
+	/// While set, limits are ignored so that the current iteration finishes
+	boolean m_mustFinish;
+	/// Lets another thread stop this search. The workers of a parallel search share one.
+	AtomicBoolean m_abort = new AtomicBoolean();
+	/// Principal variation search: null-window searches after the first move
+	boolean m_pvs = true;
+	/// Search captures at the frontier instead of evaluating in the middle of an exchange
+	boolean m_quiesce = true;
+	/// Evaluation noise. Each search has its own so that threads never share
+	/// one, and seeding it makes a search repeatable.
+	SplittableRandom m_random = new SplittableRandom();
+	/// Endgame tables to look positions up in, or null
+	Tablebases m_tablebases;
+	/// Keep what one search learned for the next search of the game: the
+	/// transposition table is aged instead of cleared, history is halved and
+	/// the principal variation seeds the next search
+	boolean m_reuse = true;
+	/// Set when pondering has filled the transposition table, so that the
+	/// next search starts from it even without m_reuse
+	boolean m_keepTable;
+	/// The principal variation of the last search, packed, and the key of
+	/// the position before each of its moves; m_pvKeys[m_pvLength] is the
+	/// position after the last one
+	int[] m_pv = new int[MAX_PLY];
+	long[] m_pvKeys = new long[MAX_PLY + 1];
+	int m_pvLength;
+
+	ChessSearch(TranspositionTable tt)
+	{
+		m_moves = new int[MAX_PLY][MAX_MOVES];
+		m_moveScores = new int[MAX_PLY][MAX_MOVES];
+		m_bestMove = new int[MAX_PLY];
+		m_stage = new int[MAX_PLY];
+		m_hashMove = new int[MAX_PLY];
+		m_moveCount = new int[MAX_PLY];
+		m_nextMove = new int[MAX_PLY];
+		m_killers = new int[MAX_PLY][2];
+		m_history = new int[2][64 * 64];
+		m_tt = tt;
+	}
+
+	/// Searches board to the given depth and returns
+	/// {score, xSource, ySource, xDest, yDest} for the best move found.
+	/// Moves that return to a position in beenThere are not considered; the
+	/// search pushes and pops its own path on it and leaves it as it was.
+	int[] alphabeta(int depth, ChessState board, boolean isMaximizePlayer, int alpha, int beta, PositionHistory beenThere)
+	{
+		if (depth >= MAX_PLY)
+		{ throw new RuntimeException("depth must be less than " + MAX_PLY); }
+		m_tt.clear();
+		clearOrdering();
+		startClock(0, 0);
+		ChessState copy = new ChessState(board);
+		int score;
+		if (isMaximizePlayer)
+		{ score = alphabeta(depth, 0, copy, true, clamp(alpha), clamp(beta), beenThere); }
+		else
+		{ score = - alphabeta(depth, 0, copy, false, clamp(- (long) beta), clamp(- (long) alpha), beenThere); }
+		m_stats.depth = depth;
+		m_stats.iterationNodes[depth] = m_stats.nodes;
+		m_stats.iterationNanos[depth] = System.nanoTime() - m_stats.startNanos;
+		m_stats.finish(isMaximizePlayer ? score : - score, m_bestMove[0]);
+		return result(score, m_bestMove[0]);
+	}
+
+	/// Searches depth 1, 2, 3... until a limit runs out, and returns
+	/// {score, xSource, ySource, xDest, yDest} from the deepest iteration that
+	/// finished. The first iteration always finishes so there is a move to play.
+	/// Each iteration starts with a narrow window around the previous score
+	/// and widens it only on the side that failed.
+	int[] search(ChessState board, boolean white, PositionHistory beenThere, Limits limits)
+	{
+		int[] probed = probeRoot(board, white, beenThere);
+		if (probed != null)
+		{ return probed; }
+		prepareTable();
+		prepareOrdering(board, white);
+		int[] result = iterate(board, white, beenThere, limits, 0);
+		savePv(board, white, m_stats.move);
+		return result;
+	}
+
+	/// Gets the transposition table ready for a new search: aged with
+	/// m_reuse or right after pondering, and cleared otherwise. Returns true
+	/// if it was cleared.
+	boolean prepareTable()
+	{
+		boolean clear = ! m_reuse && ! m_keepTable;
+		m_keepTable = false;
+		if (clear)
+		{ m_tt.clear(); }
+		else
+		{ m_tt.age(); }
+		return clear;
+	}
+
+	/// Gets the killers and history ready for a search from board. Without
+	/// m_reuse they are cleared. With it, history is halved, and if board is
+	/// on the line the last search expected, the killers move up the plies
+	/// to match and the rest of that line is put back in the table.
+	void prepareOrdering(ChessState board, boolean white)
+	{
+		int plies = m_reuse ? followPv(board.hashKey(white)) : 0;
+		for (int i = 0; i < MAX_PLY; i++)
+		{
+			boolean keep = plies > 0 && i + plies < MAX_PLY;
+			m_killers[i][0] = keep ? m_killers[i + plies][0] : 0;
+			m_killers[i][1] = keep ? m_killers[i + plies][1] : 0;
+		}
+		for (int[] history : m_history)
+		{
+			for (int i = 0; i < history.length; i++)
+			{ history[i] = m_reuse ? history[i] >> 1 : 0; }
+		}
+		m_pvLength = 0;
+	}
+
+	/// Returns how many plies along the last principal variation the position
+	/// with key is, or 0 if it is not on it. The moves after it are stored
+	/// again where the table has lost them, so that the first iterations
+	/// search the expected line first.
+	private int followPv(long key)
+	{
+		for (int k = 1; k <= m_pvLength; k++)
+		{
+			if (m_pvKeys[k] != key)
+			{ continue; }
+			for (int j = k; j < m_pvLength; j++)
+			{
+				long entry = m_tt.probe(m_pvKeys[j]);
+				// An upper bound of INFINITY never cuts off, so the entry only orders the move
+				if (entry == 0 || TranspositionTable.move(entry) == 0)
+				{ m_tt.store(m_pvKeys[j], 0, TranspositionTable.UPPER, INFINITY, m_pv[j]); }
+			}
+			return k;
+		}
+		return 0;
+	}
+
+	/// Records the principal variation of the search just finished from
+	/// board: bestMove, then the hash moves as far as the table has them
+	void savePv(ChessState board, boolean white, int bestMove)
+	{
+		ChessState pos = new ChessState(board);
+		m_pvLength = 0;
+		m_pvKeys[0] = pos.hashKey(white);
+		int m = bestMove;
+		while (m != 0 && m_pvLength < MAX_PLY)
+		{
+			int from = ChessState.moveFrom(m);
+			int to = ChessState.moveTo(m);
+			if (! pos.isValidMove(from & 7, from >> 3, to & 7, to >> 3) || pos.isWhite(from & 7, from >> 3) != white)
+			{ break; }
+			if (pos.makeMove(m))
+			{ break; }
+			white = ! white;
+			long key = pos.hashKey(white);
+			boolean repeats = false;
+			for (int j = 0; j <= m_pvLength; j++)
+			{ repeats |= m_pvKeys[j] == key; }
+			if (repeats)
+			{ break; }
+			m_pv[m_pvLength++] = m;
+			m_pvKeys[m_pvLength] = key;
+			long entry = m_tt.probe(key);
+			m = entry == 0 ? 0 : TranspositionTable.move(entry);
+		}
+	}
+
+	/// Returns the tablebase move for board as search would, or null if the
+	/// position is not in the tablebases
+	int[] probeRoot(ChessState board, boolean white, PositionHistory beenThere)
+	{
+		if (m_tablebases == null)
+		{ return null; }
+		startClock(0, 0);
+		int move = m_tablebases.bestMove(board, white, beenThere);
+		if (move == 0)
+		{ return null; }
+		ChessState copy = new ChessState(board);
+		copy.makeMove(move);
+		int score = copy.kingCaptured ? WIN_SCORE : - tablebaseScore(m_tablebases.probe(copy, ! white));
+		m_stats.tablebaseHits++;
+		m_stats.finish(score, move);
+		return result(white ? score : - score, move);
+	}
+
+	/// Converts a Tablebase value to a score for the player to move
+	static int tablebaseScore(int value)
+	{
+		if (Tablebase.isWin(value))
+		{ return TABLEBASE_WIN - Tablebase.plies(value); }
+		if (Tablebase.isLoss(value))
+		{ return - TABLEBASE_WIN + Tablebase.plies(value); }
+		return 0;
+	}
+
+	/// The iterative-deepening loop behind search, without preparing the
+	/// transposition table or the ordering tables. Every iteration searches
+	/// skew plies deeper than its number, up to the depth limit.
+	int[] iterate(ChessState board, boolean white, PositionHistory beenThere, Limits limits, int skew)
+	{
+		long start = System.nanoTime();
+		startClock(limits.millis > 0 ? start + limits.millis * 1000000 : 0, limits.nodes);
+		ChessState copy = new ChessState(board);
+		int maxDepth = limits.depth > 0 ? Math.min(limits.depth, MAX_PLY - 1) : MAX_PLY - 1;
+		int bestScore = 0;
+		int bestMove = 0;
+		for (int iteration = 1; iteration <= maxDepth; iteration++)
+		{
+			int depth = Math.min(iteration + skew, maxDepth);
+			int delta = ASPIRATION_WINDOW;
+			int alpha = depth > 1 ? bestScore - delta : - INFINITY;
+			int beta = depth > 1 ? bestScore + delta : INFINITY;
+			int score;
+			long nodesBefore = m_stats.nodes;
+			long iterationStart = System.nanoTime();
+			m_mustFinish = iteration == 1;
+			while (true)
+			{
+				score = alphabeta(depth, 0, copy, white, alpha, beta, beenThere);
+				if (m_stopped)
+				{ break; }
+				delta *= 4;
+				if (score <= alpha && alpha != - INFINITY)
+				{ alpha = delta > WIN_SCORE ? - INFINITY : bestScore - delta; }
+				else if (score >= beta && beta != INFINITY)
+				{ beta = delta > WIN_SCORE ? INFINITY : bestScore + delta; }
+				else
+				{ break; }
+			}
+			if (m_stopped)
+			{ break; }
+			bestScore = score;
+			bestMove = m_bestMove[0];
+			m_stats.depth = depth;
+			m_stats.iterationNodes[depth] = m_stats.nodes - nodesBefore;
+			m_stats.iterationNanos[depth] = System.nanoTime() - iterationStart;
+			if (Math.abs(score) >= WIN_SCORE || depth == maxDepth)
+			{ break; }
+			// The next iteration takes several times longer than this one, so
+			// don't start it if it has little chance of finishing.
+			if (limits.millis > 0 && (System.nanoTime() - start) / 1000000 > limits.millis / 2)
+			{ break; }
+		}
+		m_stats.finish(bestScore, bestMove);
+		return result(white ? bestScore : - bestScore, bestMove);
+	}
+
+	/// A copy of the statistics of the last call to search, which also holds
+	/// the move it returned
+	SearchStats stats()
+	{
+		return new SearchStats(m_stats);
+	}
+
+	void clearOrdering()
+	{
+		for (int i = 0; i < MAX_PLY; i++)
+		{
+			m_killers[i][0] = 0;
+			m_killers[i][1] = 0;
+		}
+		Arrays.fill(m_history[0], 0);
+		Arrays.fill(m_history[1], 0);
+	}
+
+	/// Forgets everything learned in the last game, so that the same search
+	/// can play another one from scratch
+	void newGame()
+	{
+		m_tt.clear();
+		clearOrdering();
+		m_pvLength = 0;
+		m_keepTable = false;
+	}
+
+	/// Lets go of the threads a parallel search holds. A plain search has none.
+	void close()
+	{
+	}
+
+	/// Gives the moves in [start, count) an ordering score
+	void scoreMoves(ChessState board, int ply, int start, int count, int hashMove, boolean white)
+	{
+		int[] moves = m_moves[ply];
+		int[] scores = m_moveScores[ply];
+		int[] history = m_history[white ? 1 : 0];
+		for (int i = start; i < count; i++)
+		{
+			int m = moves[i];
+			int from = ChessState.moveFrom(m);
+			int to = ChessState.moveTo(m);
+			int victim = board.getPiece(to & 7, to >> 3);
+			if (m == hashMove)
+			{ scores[i] = HASH_MOVE_SCORE; }
+			else if (victim != ChessState.None || (m & ChessState.PromoteFlag) != 0)
+			{
+				// Most valuable victim first, then least valuable attacker
+				int gain = ChessState.PIECE_VALUES[victim];
+				if ((m & ChessState.PromoteFlag) != 0)
+				{ gain += ChessState.PIECE_VALUES[ChessState.Queen] - ChessState.PIECE_VALUES[ChessState.Pawn]; }
+				scores[i] = CAPTURE_SCORE + gain * 1000 - ChessState.PIECE_VALUES[board.getPiece(from & 7, from >> 3)];
+			}
+			else if (m == m_killers[ply][0])
+			{ scores[i] = KILLER_SCORE + 1; }
+			else if (m == m_killers[ply][1])
+			{ scores[i] = KILLER_SCORE; }
+			else
+			{ scores[i] = history[from * 64 + to]; }
+		}
+	}
+
+	/// Returns the next move to search at ply, packed, or 0 when there are
+	/// no more. The moves come in stages: the hash move, captures and
+	/// promotions by MVV-LVA, the killers, then the quiet moves by history.
+	/// Each stage is generated only when the one before it runs out, so a
+	/// node that cuts off early never generates its quiet moves.
+	private int nextMove(ChessState board, int ply, boolean white)
+	{
+		int[] moves = m_moves[ply];
+		int hashMove = m_hashMove[ply];
+		int[] killers = m_killers[ply];
+		while (true)
+		{
+			switch (m_stage[ply])
+			{
+				case STAGE_HASH:
+					m_stage[ply] = STAGE_GENERATE_CAPTURES;
+					if (hashMove != 0 && isPseudoLegal(board, hashMove, white))
+					{ return hashMove; }
+					m_hashMove[ply] = hashMove = 0;
+					break;
+				case STAGE_GENERATE_CAPTURES:
+					m_moveCount[ply] = board.generateCaptures(white, moves);
+					scoreMoves(board, ply, 0, m_moveCount[ply], 0, white);
+					m_nextMove[ply] = 0;
+					m_stage[ply] = STAGE_CAPTURES;
+					break;
+				case STAGE_CAPTURES:
+					while (m_nextMove[ply] < m_moveCount[ply])
+					{
+						int m = pickMove(ply, m_nextMove[ply]++, m_moveCount[ply]);
+						if (m != hashMove)
+						{ return m; }
+					}
+					m_nextMove[ply] = 0;
+					m_stage[ply] = STAGE_KILLERS;
+					break;
+				case STAGE_KILLERS:
+					while (m_nextMove[ply] < 2)
+					{
+						int m = killers[m_nextMove[ply]++];
+						if (m != 0 && m != hashMove && isQuiet(board, m, white))
+						{ return m; }
+					}
+					m_stage[ply] = STAGE_GENERATE_QUIETS;
+					break;
+				case STAGE_GENERATE_QUIETS:
+				{
+					int start = m_moveCount[ply];
+					m_moveCount[ply] = board.generateQuiets(white, moves, start);
+					scoreMoves(board, ply, start, m_moveCount[ply], 0, white);
+					m_nextMove[ply] = start;
+					m_stage[ply] = STAGE_QUIETS;
+					break;
+				}
+				case STAGE_QUIETS:
+					while (m_nextMove[ply] < m_moveCount[ply])
+					{
+						int m = pickMove(ply, m_nextMove[ply]++, m_moveCount[ply]);
+						if (m != hashMove && m != killers[0] && m != killers[1])
+						{ return m; }
+					}
+					m_stage[ply] = STAGE_DONE;
+					break;
+				default:
+					return 0;
+			}
+		}
+	}
+
+	/// True if m, which came from the transposition table and so may belong
+	/// to another position, is a move generateMoves would make here
+	private static boolean isPseudoLegal(ChessState board, int m, boolean white)
+	{
+		int from = ChessState.moveFrom(m);
+		int to = ChessState.moveTo(m);
+		int piece = board.getPiece(from & 7, from >> 3);
+		if (piece == ChessState.None || board.isWhite(from & 7, from >> 3) != white || ((board.targets(from) >>> to) & 1) == 0)
+		{ return false; }
+		boolean promotes = piece == ChessState.Pawn && (to >> 3) == (white ? 7 : 0);
+		return promotes == ((m & ChessState.PromoteFlag) != 0);
+	}
+
+	/// True if the killer m is a move generateQuiets would make here
+	private static boolean isQuiet(ChessState board, int m, boolean white)
+	{
+		int to = ChessState.moveTo(m);
+		return isPseudoLegal(board, m, white) && (m & ChessState.PromoteFlag) == 0 && board.getPiece(to & 7, to >> 3) == ChessState.None;
+	}
+
+	/// Swaps the best scored move in [i, count) into slot i and returns it
+	int pickMove(int ply, int i, int count)
+	{
+		int[] moves = m_moves[ply];
+		int[] scores = m_moveScores[ply];
+		int best = i;
+		for (int j = i + 1; j < count; j++)
+		{
+			if (scores[j] > scores[best])
+			{ best = j; }
+		}
+		int m = moves[best];
+		moves[best] = moves[i];
+		moves[i] = m;
+		int sc = scores[best];
+		scores[best] = scores[i];
+		scores[i] = sc;
+		return m;
+	}
+
+	/// Remembers a quiet move that caused a beta cutoff
+	private void recordCutoff(int ply, int m, int depth, boolean white)
+	{
+		if (m_killers[ply][0] != m)
+		{
+			m_killers[ply][1] = m_killers[ply][0];
+			m_killers[ply][0] = m;
+		}
+		int[] history = m_history[white ? 1 : 0];
+		int i = ChessState.moveFrom(m) * 64 + ChessState.moveTo(m);
+		history[i] += depth * depth;
+		if (history[i] >= HISTORY_LIMIT)
+		{
+			for (int j = 0; j < history.length; j++)
+			{ history[j] >>= 1; }
+		}
+	}
+
+	/// Resets the counters for a new search that must stop at deadline (a
+	/// System.nanoTime() value) or after nodeLimit nodes. 0 means no limit.
+	void startClock(long deadline, long nodeLimit)
+	{
+		m_stats.reset();
+		m_nodeLimit = nodeLimit;
+		m_deadline = deadline;
+		m_stopped = false;
+		m_mustFinish = false;
+	}
+
+	/// Seeds the evaluation noise, so that the same searches in the same order
+	/// give the same moves and node counts
+	void setSeed(long seed)
+	{
+		m_random = new SplittableRandom(seed);
+	}
+
+	/// Copies the switches that change how the tree is searched, so that the
+	/// workers of a parallel search search the same way as their owner
+	void copySettings(ChessSearch that)
+	{
+		m_pvs = that.m_pvs;
+		m_quiesce = that.m_quiesce;
+		m_reuse = that.m_reuse;
+		m_tablebases = that.m_tablebases;
+	}
+
+	private static int clamp(long score)
+	{
+		return (int) Math.max(- INFINITY, Math.min(INFINITY, score));
+	}
+
+	/// Called on every node
+	private void checkLimits()
+	{
+		if (m_mustFinish)
+		{ return; }
+		long nodes = m_stats.nodes + m_stats.qnodes;
+		if (m_nodeLimit > 0 && nodes >= m_nodeLimit)
+		{ m_stopped = true; }
+		else if ((nodes & 1023) == 0 && (m_abort.get() || (m_deadline != 0 && System.nanoTime() >= m_deadline)))
+		{ m_stopped = true; }
+	}
+
+	/// Plays move on board, searches the position after it to depth - 1 and
+	/// takes the move back. The score, alpha and beta are from the point of
+	/// view of the player making the move. The score is only meaningful if
+	/// m_stopped is still false.
+	int searchMove(ChessState board, boolean white, int move, int depth, int alpha, int beta, PositionHistory beenThere)
+	{
+		board.makeMove(move);
+		beenThere.push(board.hashKey(! white));
+		int score = - alphabeta(depth - 1, 1, board, ! white, - beta, - alpha, beenThere);
+		beenThere.pop();
+		board.unmakeMove(move);
+		return score;
+	}
+
+	static int[] result(int score, int move)
+	{
+		int from = ChessState.moveFrom(move);
+		int to = ChessState.moveTo(move);
+		return new int[]{score, from & 7, from >> 3, to & 7, to >> 3};
+	}
+
+	/// Searches only captures and promotions until the position is quiet, so
+	/// that the frontier is never evaluated halfway through an exchange. The
+	/// player to move may stand pat on the static evaluation instead of
+	/// capturing. Captures are irreversible, so there is no repetition check.
+	private int quiesce(int ply, ChessState board, boolean white, int alpha, int beta)
+	{
+		m_bestMove[ply] = 0;
+		m_stats.qnodes++;
+		if (ply > m_stats.maxPly)
+		{ m_stats.maxPly = ply; }
+		checkLimits();
+		if (m_stopped)
+		{
+			return 0;
+		}
+		if (board.kingCaptured)
+		{
+			return - WIN_SCORE;
+		}
+		int standPat = board.heuristic(m_random);
+		if (! white)
+		{ standPat = - standPat; }
+		if (standPat >= beta || ply >= MAX_PLY - 1)
+		{
+			return standPat;
+		}
+		if (standPat > alpha)
+		{
+			alpha = standPat;
+		}
+
+		int[] moves = m_moves[ply];
+		int count = board.generateCaptures(white, moves);
+		scoreMoves(board, ply, 0, count, 0, white);
+		for (int i = 0; i < count; i++)
+		{
+			int m = pickMove(ply, i, count);
+			int to = ChessState.moveTo(m);
+			int victim = board.getPiece(to & 7, to >> 3);
+			// Delta pruning: even winning this piece cannot bring the score up to alpha
+			if (victim != ChessState.King && (m & ChessState.PromoteFlag) == 0
+					&& standPat + ChessState.PIECE_VALUES[victim] + DELTA_MARGIN <= alpha)
+			{
+				continue;
+			}
+			board.makeMove(m);
+			int score = - quiesce(ply + 1, board, ! white, - beta, - alpha);
+			board.unmakeMove(m);
+			if (m_stopped)
+			{
+				return 0;
+			}
+			if (score > alpha)
+			{
+				alpha = score;
+				m_bestMove[ply] = m;
+				if (alpha >= beta)
+				{
+					break;
+				}
+			}
+		}
+		return alpha;
+	}
+
+	/// Negamax alpha-beta: returns the score from the point of view of the
+	/// player to move, and alpha and beta are on that same scale. With PVS on,
+	/// every move after the first is searched with a null window around alpha
+	/// and searched again with the full window only if it beats alpha.
+	private int alphabeta(int depth, int ply, ChessState board, boolean white, int alpha, int beta, PositionHistory beenThere)
+	{
+		m_bestMove[ply] = 0;
+		m_stats.nodes++;
+		if (ply > m_stats.maxPly)
+		{ m_stats.maxPly = ply; }
+		checkLimits();
+		if (m_stopped)
+		{
+			return 0;
+		}
+		// The previous move took a king, so the player to move has lost
+		if (board.kingCaptured)
+		{
+			return - WIN_SCORE;
+		}
+		if (m_tablebases != null && ply > 0 && Long.bitCount(board.m_colors[0] | board.m_colors[1]) <= Tablebases.MAX_PIECES)
+		{
+			int value = m_tablebases.probe(board, white);
+			if (value >= 0)
+			{
+				m_stats.tablebaseHits++;
+				return tablebaseScore(value);
+			}
+		}
+		if (depth == 0)
+		{
+			m_stats.leaves++;
+			if (m_quiesce)
+			{ return quiesce(ply, board, white, alpha, beta); }
+			int score = board.heuristic(m_random);
+			return white ? score : - score;
+		}
+
+		long key = board.hashKey(white);
+		long entry = m_tt.probe(key);
+		int hashMove = 0;
+		if (entry != 0)
+		{
+			hashMove = TranspositionTable.move(entry);
+			int score = TranspositionTable.score(entry);
+			int bound = TranspositionTable.bound(entry);
+			if (ply > 0 && TranspositionTable.depth(entry) >= depth
+					&& (bound == TranspositionTable.EXACT
+					|| (bound == TranspositionTable.LOWER && score >= beta)
+					|| (bound == TranspositionTable.UPPER && score <= alpha)))
+			{
+				m_bestMove[ply] = hashMove;
+				return score;
+			}
+		}
+
+		m_stage[ply] = STAGE_HASH;
+		m_hashMove[ply] = hashMove;
+		int alphaOrig = alpha;
+		int searched = 0;
+		int m;
+		while ((m = nextMove(board, ply, white)) != 0)
+		{
+			int to = ChessState.moveTo(m);
+			boolean quiet = board.getPiece(to & 7, to >> 3) == ChessState.None && (m & ChessState.PromoteFlag) == 0;
+			board.makeMove(m);
+			long childKey = board.hashKey(! white);
+			if (beenThere.contains(childKey))
+			{
+				board.unmakeMove(m);
+				continue;
+			}
+			beenThere.push(childKey);
+			int score;
+			if (searched == 0 || ! m_pvs)
+			{
+				score = - alphabeta(depth - 1, ply + 1, board, ! white, - beta, - alpha, beenThere);
+			}
+			else
+			{
+				m_stats.nullWindowSearches++;
+				score = - alphabeta(depth - 1, ply + 1, board, ! white, - alpha - 1, - alpha, beenThere);
+				if (score > alpha && score < beta && ! m_stopped)
+				{
+					m_stats.researches++;
+					score = - alphabeta(depth - 1, ply + 1, board, ! white, - beta, - alpha, beenThere);
+				}
+			}
+			searched++;
+			beenThere.pop();
+			board.unmakeMove(m);
+			if (m_stopped)
+			{
+				return 0;
+			}
+			if (score > alpha)
+			{
+				alpha = score;
+				m_bestMove[ply] = m;
+			}
+			if (alpha >= beta)
+			{
+				m_stats.betaCutoffs++;
+				if (searched == 1)
+				{ m_stats.firstMoveCutoffs++; }
+				if (quiet)
+				{ recordCutoff(ply, m, depth, white); }
+				break;
+			}
+		}
+
+		int bound;
+		if (alpha >= beta)
+		{ bound = TranspositionTable.LOWER; }
+		else if (alpha > alphaOrig)
+		{ bound = TranspositionTable.EXACT; }
+		else
+		{ bound = TranspositionTable.UPPER; }
+		m_tt.store(key, depth, bound, alpha, m_bestMove[ply]);
+		return alpha;
+	}
+}
@@ -1,9 +1,14 @@
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.Scanner;
 
 /// Represents the state of a chess game
@@ -20,14 +25,53 @@ class ChessState
 	public static final int PieceMask = 7;
 	public static final int WhiteMask = 8;
 	public static final int AllMask = 15;
+	/// Set on a packed move when a pawn reaches the last row and becomes a queen
+	public static final int PromoteFlag = 1 << 12;
+	/// Material value of each piece type, indexed by the piece constants above
+	static final int[] PIECE_VALUES = {0, 10, 63, 31, 36, 88, 500, 0};
+	/// How many makeMove calls can be outstanding before unmakeMove
+	public static final int MAX_UNDO = 256;
+
+	/// Zobrist keys indexed by [piece code][square]
+	static final long[][] ZOBRIST = new long[16][64];
+	/// Mixed into hashKey when it is white's turn
+	static final long ZOBRIST_WHITE_TO_MOVE;
+
+	static
+	{
+		Random r = new Random(0x2545F4914F6CDD1DL);
+		for (int code = 0; code < 16; code++)
+		{
+			for (int sq = 0; sq < 64; sq++)
+			{ ZOBRIST[code][sq] = r.nextLong(); }
+		}
+		ZOBRIST_WHITE_TO_MOVE = r.nextLong();
+	}
 
 	int[] m_rows;
+	/// One bitboard per piece code (piece | WhiteMask), kept in sync with m_rows
+	long[] m_pieces;
+	/// All pieces of one color, indexed by white ? 1 : 0
+	long[] m_colors;
+	/// Zobrist hash of the pieces on the board, kept up to date by setPiece
+	long m_hash;
+	/// White's material minus black's, kept up to date by setPiece
+	int m_material;
 	boolean kingCaptured = false;
-	final static Random rand = new Random();
+	/// One entry per makeMove: the captured piece code in bits 0-3, bit 4 if a
+	/// pawn was promoted, bit 5 if kingCaptured was already set. Allocated on
+	/// first use so that plain copies stay cheap.
+	int[] m_undo;
+	int m_undoCount;
+	/// printBoard renders into this and writes it with a single print.
+	/// Allocated on first use and never copied.
+	StringBuilder m_text;
 
 	ChessState()
 	{
 		m_rows = new int[8];
+		m_pieces = new long[16];
+		m_colors = new long[2];
 		resetBoard();
 	}
 
@@ -35,8 +79,13 @@ class ChessState
 	{
 		this.kingCaptured = that.kingCaptured;
 		m_rows = new int[8];
-		for (int i = 0; i < 8; i++)
-		{ this.m_rows[i] = that.m_rows[i]; }
+		m_pieces = new long[16];
+		m_colors = new long[2];
+		System.arraycopy(that.m_rows, 0, m_rows, 0, 8);
+		System.arraycopy(that.m_pieces, 0, m_pieces, 0, 16);
+		System.arraycopy(that.m_colors, 0, m_colors, 0, 2);
+		m_hash = that.m_hash;
+		m_material = that.m_material;
 	}
 
 	int getPiece(int col, int row)
@@ -53,8 +102,46 @@ class ChessState
 	/// matter what the value of white is.
 	void setPiece(int col, int row, int piece, boolean white)
 	{
+		long bit = 1L << (row * 8 + col);
+		int old = (m_rows[row] >> (4 * col)) & AllMask;
+		if ((old & PieceMask) != None)
+		{
+			m_pieces[old] &= ~ bit;
+			m_colors[old >> 3] &= ~ bit;
+			m_hash ^= ZOBRIST[old][row * 8 + col];
+			m_material -= (old & WhiteMask) != 0 ? PIECE_VALUES[old & PieceMask] : - PIECE_VALUES[old & PieceMask];
+		}
 		m_rows[row] &= (~ (AllMask << (4 * col)));
 		m_rows[row] |= ((piece | (white ? WhiteMask : 0)) << (4 * col));
+		if (piece != None)
+		{
+			m_pieces[piece | (white ? WhiteMask : 0)] |= bit;
+			m_colors[white ? 1 : 0] |= bit;
+			m_hash ^= ZOBRIST[piece | (white ? WhiteMask : 0)][row * 8 + col];
+			m_material += white ? PIECE_VALUES[piece] : - PIECE_VALUES[piece];
+		}
+	}
+
+	/// Two states are equal if they have the same pieces on the same squares
+	@Override
+	public boolean equals(Object o)
+	{
+		if (! (o instanceof ChessState))
+		{ return false; }
+		ChessState that = (ChessState) o;
+		return m_hash == that.m_hash && kingCaptured == that.kingCaptured && Arrays.equals(m_pieces, that.m_pieces);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return (int) (m_hash ^ (m_hash >>> 32));
+	}
+
+	/// Returns a Zobrist key for this position with the given player to move
+	long hashKey(boolean whiteToMove)
+	{
+		return whiteToMove ? m_hash ^ ZOBRIST_WHITE_TO_MOVE : m_hash;
 	}
 
 	/// Sets up the board for a new game
@@ -88,48 +175,11 @@ class ChessState
 	}
 
 	/// Positive means white is favored. Negative means black is favored.
-	int heuristic(Random rand)
+	/// rand adds a point of noise either way so that equal moves are not
+	/// always played in the same order.
+	int heuristic(SplittableRandom rand)
 	{
-		int score = 0;
-		for (int y = 0; y < 8; y++)
-		{
-			for (int x = 0; x < 8; x++)
-			{
-				int p = getPiece(x, y);
-				int value;
-				switch (p)
-				{
-					case None:
-						value = 0;
-						break;
-					case Pawn:
-						value = 10;
-						break;
-					case Rook:
-						value = 63;
-						break;
-					case Knight:
-						value = 31;
-						break;
-					case Bishop:
-						value = 36;
-						break;
-					case Queen:
-						value = 88;
-						break;
-					case King:
-						value = 500;
-						break;
-					default:
-						throw new RuntimeException("what?");
-				}
-				if (isWhite(x, y))
-				{ score += value; }
-				else
-				{ score -= value; }
-			}
-		}
-		return score + rand.nextInt(3) - 1;
+		return m_material + rand.nextInt(3) - 1;
 	}
 
 	/// Returns an iterator that iterates over all possible moves for the specified color
@@ -138,76 +188,242 @@ class ChessState
 		return new ChessMoveIterator(this, white);
 	}
 
-	/// Returns true iff the parameters represent a valid move
-	boolean isValidMove(int xSrc, int ySrc, int xDest, int yDest)
+	/// Writes every move for the specified color into buf as packed moves
+	/// (see packMove) and returns how many were written. buf must have room
+	/// for 16 * MAX_PIECE_MOVES entries.
+	int generateMoves(boolean white, int[] buf)
+	{
+		long allowed = ~ m_colors[white ? 1 : 0];
+		return generate(white, buf, 0, allowed, allowed);
+	}
+
+	/// Like generateMoves, but only writes captures and promotions
+	int generateCaptures(boolean white, int[] buf)
 	{
-		ArrayList<Integer> possible_moves = moves(xSrc, ySrc);
-		for (int i = 0; i < possible_moves.size(); i += 2)
+		long enemy = m_colors[white ? 0 : 1];
+		return generate(white, buf, 0, enemy, enemy | Bitboards.ROWS[white ? 7 : 0]);
+	}
+
+	/// Writes the moves that generateCaptures leaves out into buf, starting
+	/// at count, and returns the new count
+	int generateQuiets(boolean white, int[] buf, int count)
+	{
+		long empty = ~ (m_colors[0] | m_colors[1]);
+		return generate(white, buf, count, empty, empty & ~ Bitboards.ROWS[white ? 7 : 0]);
+	}
+
+	/// Writes the moves of one color into buf from count on: pieces that
+	/// land on allowed, and pawns that land on pawnAllowed. Pieces are found
+	/// through the bitboard of each piece type, which is kept up to date as
+	/// pieces are taken and pawns promote, so the work grows with the number
+	/// of pieces and not with the size of the board. The pawns all move at
+	/// once, by shifting their bitboard.
+	private int generate(boolean white, int[] buf, int count, long allowed, long pawnAllowed)
+	{
+		int side = white ? WhiteMask : 0;
+		long enemy = m_colors[white ? 0 : 1];
+		long occupied = m_colors[0] | m_colors[1];
+		long empty = ~ occupied;
+
+		long pawns = m_pieces[Pawn | side];
+		long lastRow = Bitboards.ROWS[white ? 7 : 0];
+		long pushes = (white ? pawns << 8 : pawns >>> 8) & empty;
+		long doubles = (white ? (pushes & Bitboards.ROWS[2]) << 8 : (pushes & Bitboards.ROWS[5]) >>> 8) & empty & pawnAllowed;
+		long left = (white ? pawns << 7 : pawns >>> 9) & enemy & ~ Bitboards.FILE_H & pawnAllowed;
+		long right = (white ? pawns << 9 : pawns >>> 7) & enemy & ~ Bitboards.FILE_A & pawnAllowed;
+		pushes &= pawnAllowed;
+		count = addPawnMoves(buf, count, pushes, white ? - 8 : 8, lastRow);
+		count = addPawnMoves(buf, count, doubles, white ? - 16 : 16, lastRow);
+		count = addPawnMoves(buf, count, left, white ? - 7 : 9, lastRow);
+		count = addPawnMoves(buf, count, right, white ? - 9 : 7, lastRow);
+
+		for (long bb = m_pieces[Knight | side]; bb != 0; bb &= bb - 1)
 		{
-			if (possible_moves.get(i).intValue() == xDest && possible_moves.get(i + 1).intValue() == yDest)
-			{ return true; }
+			int from = Long.numberOfTrailingZeros(bb);
+			count = addMoves(buf, count, from, Bitboards.KNIGHT_ATTACKS[from] & allowed);
 		}
-		return false;
+		for (long bb = m_pieces[Bishop | side]; bb != 0; bb &= bb - 1)
+		{
+			int from = Long.numberOfTrailingZeros(bb);
+			count = addMoves(buf, count, from, Bitboards.bishopAttacks(from, occupied) & allowed);
+		}
+		for (long bb = m_pieces[Rook | side]; bb != 0; bb &= bb - 1)
+		{
+			int from = Long.numberOfTrailingZeros(bb);
+			count = addMoves(buf, count, from, Bitboards.rookAttacks(from, occupied) & allowed);
+		}
+		for (long bb = m_pieces[Queen | side]; bb != 0; bb &= bb - 1)
+		{
+			int from = Long.numberOfTrailingZeros(bb);
+			count = addMoves(buf, count, from, Bitboards.queenAttacks(from, occupied) & allowed);
+		}
+		for (long bb = m_pieces[King | side]; bb != 0; bb &= bb - 1)
+		{
+			int from = Long.numberOfTrailingZeros(bb);
+			count = addMoves(buf, count, from, Bitboards.KING_ATTACKS[from] & allowed);
+		}
+		return count;
+	}
+
+	/// Adds a pawn move for every square in dest, each from the square offset away
+	private static int addPawnMoves(int[] buf, int count, long dest, int offset, long lastRow)
+	{
+		for (; dest != 0; dest &= dest - 1)
+		{
+			int to = Long.numberOfTrailingZeros(dest);
+			buf[count++] = packMove(to + offset, to, ((lastRow >>> to) & 1) != 0 ? PromoteFlag : 0);
+		}
+		return count;
+	}
+
+	private static int addMoves(int[] buf, int count, int from, long dest)
+	{
+		for (; dest != 0; dest &= dest - 1)
+		{ buf[count++] = packMove(from, Long.numberOfTrailingZeros(dest), 0); }
+		return count;
 	}
 
-	/// Print a representation of the board to the specified stream
+	/// Packs a move into an int: bits 0-5 hold the source square, bits 6-11
+	/// the destination square (row * 8 + col), and the rest hold flags.
+	static int packMove(int from, int to, int flags)
+	{
+		return from | (to << 6) | flags;
+	}
+
+	static int moveFrom(int move)
+	{
+		return move & 63;
+	}
+
+	static int moveTo(int move)
+	{
+		return (move >> 6) & 63;
+	}
+
+	/// A packed move in the form the players type it, such as B2B3
+	static String moveName(int move)
+	{
+		int from = moveFrom(move);
+		int to = moveTo(move);
+		return "" + (char) ('A' + (from & 7)) + ((from >> 3) + 1) + (char) ('A' + (to & 7)) + ((to >> 3) + 1);
+	}
+
+	/// Returns true iff the parameters represent a valid move
+	boolean isValidMove(int xSrc, int ySrc, int xDest, int yDest)
+	{
+		if (xSrc < 0 || xSrc >= 8 || ySrc < 0 || ySrc >= 8 || xDest < 0 || xDest >= 8 || yDest < 0 || yDest >= 8)
+		{ return false; }
+		return (targets(ySrc * 8 + xSrc) & (1L << (yDest * 8 + xDest))) != 0;
+	}
+
+	/// Print a representation of the board to the specified stream. The board
+	/// is rendered first and written with one call, so that an unbuffered or
+	/// autoflushing stream is not flushed hundreds of times per board.
 	void printBoard(PrintStream stream)
 	{
-		stream.println("  A  B  C  D  E  F  G  H");
-		stream.print(" +");
+		if (m_text == null)
+		{ m_text = new StringBuilder(1024); }
+		m_text.setLength(0);
+		appendBoard(m_text);
+		stream.print(m_text);
+	}
+
+	/// Appends the board as printBoard prints it
+	void appendBoard(StringBuilder sb)
+	{
+		String nl = System.lineSeparator();
+		sb.append("  A  B  C  D  E  F  G  H").append(nl);
+		sb.append(" +");
 		for (int i = 0; i < 8; i++)
-		{ stream.print("--+"); }
-		stream.println();
+		{ sb.append("--+"); }
+		sb.append(nl);
 		for (int j = 7; j >= 0; j--)
 		{
-			stream.print(Character.toString((char) (49 + j)));
-			stream.print("|");
+			sb.append((char) (49 + j));
+			sb.append('|');
 			for (int i = 0; i < 8; i++)
 			{
 				int p = getPiece(i, j);
 				if (p != None)
 				{
 					if (isWhite(i, j))
-					{ stream.print("w"); }
+					{ sb.append('w'); }
 					else
-					{ stream.print("b"); }
+					{ sb.append('b'); }
 				}
 				switch (p)
 				{
 					case None:
-						stream.print("  ");
+						sb.append("  ");
 						break;
 					case Pawn:
-						stream.print("p");
+						sb.append('p');
 						break;
 					case Rook:
-						stream.print("r");
+						sb.append('r');
 						break;
 					case Knight:
-						stream.print("n");
+						sb.append('n');
 						break;
 					case Bishop:
-						stream.print("b");
+						sb.append('b');
 						break;
 					case Queen:
-						stream.print("q");
+						sb.append('q');
 						break;
 					case King:
-						stream.print("K");
+						sb.append('K');
 						break;
 					default:
-						stream.print("?");
+						sb.append('?');
 						break;
 				}
-				stream.print("|");
+				sb.append('|');
 			}
-			stream.print(Character.toString((char) (49 + j)));
-			stream.print("\n +");
+			sb.append((char) (49 + j));
+			sb.append("\n +");
 			for (int i = 0; i < 8; i++)
-			{ stream.print("--+"); }
-			stream.println();
+			{ sb.append("--+"); }
+			sb.append(nl);
 		}
-		stream.println("  A  B  C  D  E  F  G  H");
+		sb.append("  A  B  C  D  E  F  G  H").append(nl);
+	}
+
+	/// Reads a board in the format printBoard writes, replacing every piece on
+	/// this one. Lines that are not board rows are ignored, so a board can be
+	/// copied straight out of a game's output.
+	void readBoard(Scanner sc)
+	{
+		boolean[] seen = new boolean[8];
+		while (sc.hasNextLine())
+		{
+			String line = sc.nextLine().trim();
+			if (line.length() < 26 || line.charAt(0) < '1' || line.charAt(0) > '8' || line.charAt(1) != '|')
+			{ continue; }
+			int j = line.charAt(0) - '1';
+			for (int i = 0; i < 8; i++)
+			{
+				String cell = line.substring(2 + 3 * i, 4 + 3 * i);
+				if (line.charAt(4 + 3 * i) != '|')
+				{ throw new IllegalArgumentException("Bad board row: " + line); }
+				if (cell.equals("  "))
+				{
+					setPiece(i, j, None, false);
+					continue;
+				}
+				int p = "prnbqK".indexOf(cell.charAt(1)) + 1;
+				if (p == 0 || (cell.charAt(0) != 'w' && cell.charAt(0) != 'b'))
+				{ throw new IllegalArgumentException("Bad square " + cell + " in row " + (j + 1)); }
+				setPiece(i, j, p, cell.charAt(0) == 'w');
+			}
+			seen[j] = true;
+		}
+		for (int j = 0; j < 8; j++)
+		{
+			if (! seen[j])
+			{ throw new IllegalArgumentException("Row " + (j + 1) + " is missing from the board"); }
+		}
+		kingCaptured = false;
 	}
 
 	/// Pass in the coordinates of a square with a piece on it
@@ -215,138 +431,70 @@ class ChessState
 	ArrayList<Integer> moves(int col, int row)
 	{
 		ArrayList<Integer> pOutMoves = new ArrayList<Integer>();
-		int p = getPiece(col, row);
-		boolean bWhite = isWhite(col, row);
-		int nMoves = 0;
-		int i, j;
-		switch (p)
+		long dest = targets(row * 8 + col);
+		while (dest != 0)
+		{
+			int sq = Long.numberOfTrailingZeros(dest);
+			dest &= dest - 1;
+			pOutMoves.add(sq & 7);
+			pOutMoves.add(sq >> 3);
+		}
+		return pOutMoves;
+	}
+
+	/// Returns the set of squares the piece on sq can move to, as a bitboard.
+	/// Returns 0 if the square is empty.
+	long targets(int sq)
+	{
+		int code = (m_rows[sq >> 3] >> (4 * (sq & 7))) & AllMask;
+		int side = code >> 3;
+		long own = m_colors[side];
+		long occupied = own | m_colors[side ^ 1];
+		switch (code & PieceMask)
 		{
 			case Pawn:
-				if (bWhite)
-				{
-					if (! checkPawnMove(pOutMoves, col, inc(row), false, bWhite) && row == 1)
-					{ checkPawnMove(pOutMoves, col, inc(inc(row)), false, bWhite); }
-					checkPawnMove(pOutMoves, inc(col), inc(row), true, bWhite);
-					checkPawnMove(pOutMoves, dec(col), inc(row), true, bWhite);
-				}
-				else
-				{
-					if (! checkPawnMove(pOutMoves, col, dec(row), false, bWhite) && row == 6)
-					{ checkPawnMove(pOutMoves, col, dec(dec(row)), false, bWhite); }
-					checkPawnMove(pOutMoves, inc(col), dec(row), true, bWhite);
-					checkPawnMove(pOutMoves, dec(col), dec(row), true, bWhite);
-				}
-				break;
+				return pawnTargets(sq, side == 1, occupied);
 			case Bishop:
-				for (i = inc(col), j = inc(row); true; i = inc(i), j = inc(j))
-				{
-					if (checkMove(pOutMoves, i, j, bWhite))
-					{ break; }
-				}
-				for (i = dec(col), j = inc(row); true; i = dec(i), j = inc(j))
-				{
-					if (checkMove(pOutMoves, i, j, bWhite))
-					{ break; }
-				}
-				for (i = inc(col), j = dec(row); true; i = inc(i), j = dec(j))
-				{
-					if (checkMove(pOutMoves, i, j, bWhite))
-					{ break; }
-				}
-				for (i = dec(col), j = dec(row); true; i = dec(i), j = dec(j))
-				{
-					if (checkMove(pOutMoves, i, j, bWhite))
-					{ break; }
-				}
-				break;
+				return Bitboards.bishopAttacks(sq, occupied) & ~ own;
 			case Knight:
-				checkMove(pOutMoves, inc(inc(col)), inc(row), bWhite);
-				checkMove(pOutMoves, inc(col), inc(inc(row)), bWhite);
-				checkMove(pOutMoves, dec(col), inc(inc(row)), bWhite);
-				checkMove(pOutMoves, dec(dec(col)), inc(row), bWhite);
-				checkMove(pOutMoves, dec(dec(col)), dec(row), bWhite);
-				checkMove(pOutMoves, dec(col), dec(dec(row)), bWhite);
-				checkMove(pOutMoves, inc(col), dec(dec(row)), bWhite);
-				checkMove(pOutMoves, inc(inc(col)), dec(row), bWhite);
-				break;
+				return Bitboards.KNIGHT_ATTACKS[sq] & ~ own;
 			case Rook:
-				for (i = inc(col); true; i = inc(i))
-				{
-					if (checkMove(pOutMoves, i, row, bWhite))
-					{ break; }
-				}
-				for (i = dec(col); true; i = dec(i))
-				{
-					if (checkMove(pOutMoves, i, row, bWhite))
-					{ break; }
-				}
-				for (j = inc(row); true; j = inc(j))
-				{
-					if (checkMove(pOutMoves, col, j, bWhite))
-					{ break; }
-				}
-				for (j = dec(row); true; j = dec(j))
-				{
-					if (checkMove(pOutMoves, col, j, bWhite))
-					{ break; }
-				}
-				break;
+				return Bitboards.rookAttacks(sq, occupied) & ~ own;
 			case Queen:
-				for (i = inc(col); true; i = inc(i))
-				{
-					if (checkMove(pOutMoves, i, row, bWhite))
-					{ break; }
-				}
-				for (i = dec(col); true; i = dec(i))
-				{
-					if (checkMove(pOutMoves, i, row, bWhite))
-					{ break; }
-				}
-				for (j = inc(row); true; j = inc(j))
-				{
-					if (checkMove(pOutMoves, col, j, bWhite))
-					{ break; }
-				}
-				for (j = dec(row); true; j = dec(j))
-				{
-					if (checkMove(pOutMoves, col, j, bWhite))
-					{ break; }
-				}
-				for (i = inc(col), j = inc(row); true; i = inc(i), j = inc(j))
-				{
-					if (checkMove(pOutMoves, i, j, bWhite))
-					{ break; }
-				}
-				for (i = dec(col), j = inc(row); true; i = dec(i), j = inc(j))
-				{
-					if (checkMove(pOutMoves, i, j, bWhite))
-					{ break; }
-				}
-				for (i = inc(col), j = dec(row); true; i = inc(i), j = dec(j))
-				{
-					if (checkMove(pOutMoves, i, j, bWhite))
-					{ break; }
-				}
-				for (i = dec(col), j = dec(row); true; i = dec(i), j = dec(j))
-				{
-					if (checkMove(pOutMoves, i, j, bWhite))
-					{ break; }
-				}
-				break;
+				return Bitboards.queenAttacks(sq, occupied) & ~ own;
 			case King:
-				checkMove(pOutMoves, inc(col), row, bWhite);
-				checkMove(pOutMoves, inc(col), inc(row), bWhite);
-				checkMove(pOutMoves, col, inc(row), bWhite);
-				checkMove(pOutMoves, dec(col), inc(row), bWhite);
-				checkMove(pOutMoves, dec(col), row, bWhite);
-				checkMove(pOutMoves, dec(col), dec(row), bWhite);
-				checkMove(pOutMoves, col, dec(row), bWhite);
-				checkMove(pOutMoves, inc(col), dec(row), bWhite);
-				break;
+				return Bitboards.KING_ATTACKS[sq] & ~ own;
 			default:
-				break;
+				return 0;
+		}
+	}
+
+	/// Pawns push one square onto an empty square, two from their starting
+	/// row if both squares are empty, and only move diagonally to capture.
+	private long pawnTargets(int sq, boolean white, long occupied)
+	{
+		long bb = 0;
+		int row = sq >> 3;
+		if (white)
+		{
+			if (row < 7 && (occupied & (1L << (sq + 8))) == 0)
+			{
+				bb |= 1L << (sq + 8);
+				if (row == 1 && (occupied & (1L << (sq + 16))) == 0)
+				{ bb |= 1L << (sq + 16); }
+			}
+			return bb | (Bitboards.PAWN_ATTACKS[1][sq] & m_colors[0]);
+		}
+		else
+		{
+			if (row > 0 && (occupied & (1L << (sq - 8))) == 0)
+			{
+				bb |= 1L << (sq - 8);
+				if (row == 6 && (occupied & (1L << (sq - 16))) == 0)
+				{ bb |= 1L << (sq - 16); }
+			}
+			return bb | (Bitboards.PAWN_ATTACKS[0][sq] & m_colors[1]);
 		}
-		return pOutMoves;
 	}
 
 	/// Moves the piece from (xSrc, ySrc) to (xDest, yDest). If this move
@@ -378,69 +526,57 @@ class ChessState
 			// If you take the opponent's king, remove all of the opponent's pieces. This
 			// makes sure that look-ahead strategies don't try to look beyond the end of
 			// the game (example: sacrifice a king for a king and some other piece.)
-			int x, y;
-			for (y = 0; y < 8; y++)
+			long loser = m_colors[white ? 0 : 1];
+			while (loser != 0)
 			{
-				for (x = 0; x < 8; x++)
-				{
-					if (getPiece(x, y) != None)
-					{
-						if (isWhite(x, y) != white)
-						{
-							setPiece(x, y, None, true);
-						}
-					}
-				}
+				int sq = Long.numberOfTrailingZeros(loser);
+				loser &= loser - 1;
+				setPiece(sq & 7, sq >> 3, None, true);
 			}
 			return true;
 		}
 		return false;
 	}
 
-	static int inc(int pos)
-	{
-		if (pos < 0 || pos >= 7)
-		{ return - 1; }
-		return pos + 1;
-	}
-
-	static int dec(int pos)
-	{
-		if (pos < 1)
-		{ return - 1; }
-		return pos - 1;
-	}
-
-	boolean checkMove(ArrayList<Integer> pOutMoves, int col, int row, boolean bWhite)
+	/// Plays a packed move in place so that it can be taken back with
+	/// unmakeMove. Unlike move, taking a king does not clear the board; it only
+	/// sets kingCaptured, which the search treats as the end of the game.
+	/// Returns kingCaptured.
+	boolean makeMove(int move)
 	{
-		if (col < 0 || row < 0)
-		{ return true; }
-		int p = getPiece(col, row);
-		if (p > 0 && isWhite(col, row) == bWhite)
-		{ return true; }
-		pOutMoves.add(col);
-		pOutMoves.add(row);
-		return (p > 0);
+		if (m_undo == null)
+		{ m_undo = new int[MAX_UNDO]; }
+		int from = moveFrom(move);
+		int to = moveTo(move);
+		int code = (m_rows[from >> 3] >> (4 * (from & 7))) & AllMask;
+		int captured = (m_rows[to >> 3] >> (4 * (to & 7))) & AllMask;
+		int p = code & PieceMask;
+		boolean white = (code & WhiteMask) != 0;
+		int undo = captured | (kingCaptured ? 32 : 0);
+		if (p == Pawn && ((to >> 3) == 0 || (to >> 3) == 7))
+		{
+			p = Queen;
+			undo |= 16;
+		}
+		m_undo[m_undoCount++] = undo;
+		setPiece(to & 7, to >> 3, p, white);
+		setPiece(from & 7, from >> 3, None, true);
+		if ((captured & PieceMask) == King)
+		{ kingCaptured = true; }
+		return kingCaptured;
 	}
 
-	boolean checkPawnMove(ArrayList<Integer> pOutMoves, int col, int row, boolean bDiagonal, boolean bWhite)
+	/// Takes back the most recent makeMove, which must have been given the same move
+	void unmakeMove(int move)
 	{
-		if (col < 0 || row < 0)
-		{ return true; }
-		int p = getPiece(col, row);
-		if (bDiagonal)
-		{
-			if (p == None || isWhite(col, row) == bWhite)
-			{ return true; }
-		}
-		else
-		{
-			if (p > 0)
-			{ return true; }
-		}
-		pOutMoves.add(col);
-		pOutMoves.add(row);
-		return (p > 0);
+		int from = moveFrom(move);
+		int to = moveTo(move);
+		int undo = m_undo[-- m_undoCount];
+		int code = (m_rows[to >> 3] >> (4 * (to & 7))) & AllMask;
+		int p = (undo & 16) != 0 ? Pawn : code & PieceMask;
+		setPiece(from & 7, from >> 3, p, (code & WhiteMask) != 0);
+		setPiece(to & 7, to >> 3, undo & PieceMask, (undo & WhiteMask) != 0);
+		kingCaptured = (undo & 32) != 0;
 	}
 
 	/// Represents a possible  move
@@ -455,170 +591,94 @@ class ChessState
 	/// Iterates through all the possible moves for the specified color.
 	static class ChessMoveIterator
 	{
-		int x, y;
-		ArrayList<Integer> moves;
+		long pieces;
+		long dest;
+		int src;
 		ChessState state;
 		boolean white;
 
 		/// Constructs a move iterator
 		ChessMoveIterator(ChessState curState, boolean whiteMoves)
 		{
-			x = - 1;
-			y = 0;
-			moves = null;
 			state = curState;
 			white = whiteMoves;
+			pieces = curState.m_colors[whiteMoves ? 1 : 0];
+			dest = 0;
 			advance();
 		}
 
+		/// Moves on to the next piece that has somewhere to go
 		private void advance()
 		{
-			if (moves != null && moves.size() >= 2)
+			while (dest == 0 && pieces != 0)
 			{
-				moves.remove(moves.size() - 1);
-				moves.remove(moves.size() - 1);
-			}
-			while (y < 8 && (moves == null || moves.size() < 2))
-			{
-				if (++ x >= 8)
-				{
-					x = 0;
-					y++;
-				}
-				if (y < 8)
-				{
-					if (state.getPiece(x, y) != ChessState.None && state.isWhite(x, y) == white)
-					{ moves = state.moves(x, y); }
-					else
-					{ moves = null; }
-				}
+				src = Long.numberOfTrailingZeros(pieces);
+				pieces &= pieces - 1;
+				dest = state.targets(src);
 			}
 		}
 
 		/// Returns true iff there is another move to visit
 		boolean hasNext()
 		{
-			return (moves != null && moves.size() >= 2);
+			return dest != 0;
 		}
 
 		/// Returns the next move
 		ChessState.ChessMove next()
 		{
+			int sq = Long.numberOfTrailingZeros(dest);
+			dest &= dest - 1;
 			ChessState.ChessMove m = new ChessState.ChessMove();
-			m.xSource = x;
-			m.ySource = y;
-			m.xDest = moves.get(moves.size() - 2);
-			m.yDest = moves.get(moves.size() - 1);
+			m.xSource = src & 7;
+			m.ySource = src >> 3;
+			m.xDest = sq & 7;
+			m.yDest = sq >> 3;
 			advance();
 			return m;
 		}
 	}
 
-	private boolean getTurn(boolean currentPlayer)
-	{
-		return ! currentPlayer;
-	}
-
-	int[] alphabeta(int depth, ChessState board, boolean isMaximizePlayer, int alpha, int beta, ArrayList beenThere)
+	public static void main(String[] args) throws IOException
 	{
-		int[] bestMoveForMax = new int[4];
-		int[] bestMoveForMin = new int[4];
-		boolean hasBeenThere = false;
-		ChessMoveIterator it;
-		ChessState.ChessMove m;
-
+		int firstArg = 0;
+		int secondArg = 0;
 
-		if (isMaximizePlayer)
+		ChessState chess = new ChessState();
+		EngineOptions options = new EngineOptions();
+		try
 		{
-			it = board.iterator(true);
-		}
-		else
+			args = options.parse(args);
+		} catch (IllegalArgumentException e)
 		{
-			it = board.iterator(false);
+			System.err.println(e.getMessage());
+			System.exit(1);
 		}
-		// Check to see if its a tie, win, or lose
-		// Win
-		if (kingCaptured)
+		if (args.length > 0 && args[0].equals("perft"))
 		{
-			return new int[]{500000, 387565234, 235645, 45435344, 343535};
-
+			perft(args, options);
+			return;
 		}
-/*		if (! it.hasNext())
+		if (args.length > 0 && args[0].equals("replay"))
 		{
-			return new int[]{board.heuristic(rand), 387565234, 235645, 45435344, 343535};
-		}*/
-
-		if (depth == 0)
-		{
-			//printBoard(board.cells);
-			//System.out.println(depth);
-			//numberOfMoves++;
-			return new int[]{board.heuristic(rand), 387565234, 235645, 45435344, 343535};
+			replay(args, options);
+			return;
 		}
-
-		ArrayList<int[]> scores = new ArrayList<>();
-		while (it.hasNext())
+		if (args.length > 0 && args[0].equals("book"))
 		{
-			// check to see if its the AI's turn
-			ChessState newBoard = new ChessState(board);
-			m = it.next();
-			if(beenThere.contains(newBoard)){
-				continue;
-			}
-			if (newBoard.isValidMove(m.xSource, m.ySource, m.xDest, m.yDest))
-			{
-				newBoard.kingCaptured = newBoard.move(m.xSource, m.ySource, m.xDest, m.yDest);
-			}
-			int[] score = alphabeta(depth - 1, newBoard, newBoard.getTurn(isMaximizePlayer), alpha, beta, beenThere);
-			if (isMaximizePlayer)
-			{
-				if (score[0] > alpha)
-				{
-					alpha = score[0];
-					bestMoveForMax[0] = m.xSource;
-					bestMoveForMax[1] = m.ySource;
-					bestMoveForMax[2] = m.xDest;
-					bestMoveForMax[3] = m.yDest;
-				}
-				if (alpha >= beta)
-				{
-					break;
-				}
-			}
-			else
-			{
-				if (score[0] < beta)
-				{
-					beta = score[0];
-					bestMoveForMin[0] = m.xSource;
-					bestMoveForMin[1] = m.ySource;
-					bestMoveForMin[2] = m.xDest;
-					bestMoveForMin[3] = m.yDest;
-				}
-				if (alpha >= beta)
-				{
-					break;
-				}
-			}
+			buildBook(args, options);
+			return;
 		}
-
-		if (isMaximizePlayer)
+		if (args.length > 0 && args[0].equals("tablebases"))
 		{
-			return new int[]{alpha, bestMoveForMax[0], bestMoveForMax[1], bestMoveForMax[2], bestMoveForMax[3]};
+			buildTablebases(args);
+			return;
 		}
-		else
+		if (args.length > 0 && args[0].equals("tournament"))
 		{
-			return new int[]{beta, bestMoveForMin[0], bestMoveForMin[1], bestMoveForMin[2], bestMoveForMin[3]};
+			tournament(args, options);
+			return;
 		}
-	}
-
-
-	public static void main(String[] args) throws FileNotFoundException
-	{
-		int firstArg = 0;
-		int secondArg = 0;
-
-		ChessState chess = new ChessState();
 		if (args.length > 0)
 		{
 			try
@@ -637,15 +697,15 @@ class ChessState
 		}
 		else if (firstArg == 0)
 		{
-			chess.PlayerVsAI(firstArg, secondArg);
+			chess.PlayerVsAI(firstArg, secondArg, options);
 		}
 		else if (secondArg == 0)
 		{
-			chess.AIvsPlayer(firstArg, secondArg);
+			chess.AIvsPlayer(firstArg, secondArg, options);
 		}
 		else if (firstArg > 0 || secondArg > 0)
 		{
-			chess.AIvsAI(firstArg, secondArg);
+			chess.AIvsAI(firstArg, secondArg, options);
 		}
 
 
@@ -656,6 +716,231 @@ class ChessState
 
 	}
 
+	/// perft <depth>: counts the positions depth plies from the start, or from
+	/// the board in the --position file, and prints the speed
+	private static void perft(String[] args, EngineOptions options) throws FileNotFoundException
+	{
+		int depth = 0;
+		try
+		{
+			depth = Integer.parseInt(args[1]);
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+		{
+			System.err.println("Usage: perft <depth>");
+			System.exit(1);
+		}
+		ChessState board = new ChessState();
+		if (options.positionFile != null)
+		{
+			try (Scanner sc = new Scanner(new File(options.positionFile)))
+			{
+				board.readBoard(sc);
+			} catch (IllegalArgumentException e)
+			{
+				System.err.println(e.getMessage());
+				System.exit(1);
+			}
+		}
+		Perft perft = new Perft();
+		perft.m_bulk = options.bulk;
+		perft.m_divide = options.divide;
+		perft.m_threads = options.threads;
+		perft.run(board, options.whiteToMove, depth);
+	}
+
+	/// book <file> <log>...: builds an opening book from the first
+	/// --book-plies plies of the games in the logs
+	private static void buildBook(String[] args, EngineOptions options) throws IOException
+	{
+		if (args.length < 3)
+		{
+			System.err.println("Usage: book <book file> <game log>...");
+			System.exit(1);
+		}
+		long start = System.nanoTime();
+		int records = OpeningBook.build(args[1], Arrays.copyOfRange(args, 2, args.length), options.bookPlies, options.bookMinGames);
+		System.out.printf("Wrote %d moves to %s in %.1f s%n", records, args[1], (System.nanoTime() - start) / 1e9);
+	}
+
+	/// tablebases <dir>: solves every endgame table and writes them to dir,
+	/// ready for --tablebases
+	private static void buildTablebases(String[] args) throws IOException
+	{
+		if (args.length != 2)
+		{
+			System.err.println("Usage: tablebases <dir>");
+			System.exit(1);
+		}
+		Tablebases.build(args[1]);
+	}
+
+	/// Returns {0, xSource, ySource, xDest, yDest} for a move from book, in the
+	/// form ChessSearch.search returns, or null if there is no book, the
+	/// position is not in it or the book move would repeat a position
+	private static int[] bookMove(OpeningBook book, ChessState board, boolean white, PositionHistory beenThere)
+	{
+		if (book == null)
+		{ return null; }
+		int m = book.probe(board, white);
+		if (m == 0)
+		{ return null; }
+		ChessState after = new ChessState(board);
+		after.makeMove(m);
+		if (beenThere.contains(after.hashKey(! white)))
+		{ return null; }
+		return ChessSearch.result(0, m);
+	}
+
+	private static void printBookMove(PrintStream out, boolean headless, int ply, String side, int[] move)
+	{
+		String name = moveName(packMove(move[2] * 8 + move[1], move[4] * 8 + move[3], 0));
+		if (headless)
+		{ out.printf("%d %s %s book%n", ply, side, name); }
+		else
+		{ out.printf("%s played %s from the opening book%n", side, name); }
+	}
+
+	/// Appends a finished game to the --record log, if there is one, and closes it
+	private static void saveGame(GameLog gameLog, GameRecord record) throws IOException
+	{
+		if (gameLog == null)
+		{ return; }
+		gameLog.write(record);
+		gameLog.close();
+	}
+
+	/// replay <file>: reads every game in a --record log and prints totals,
+	/// replaying each one with --verify on. replay <file> <game> [ply]: prints
+	/// the moves of a game (counting from 1) and the board after ply plies,
+	/// or at the end of the game.
+	private static void replay(String[] args, EngineOptions options) throws IOException
+	{
+		if (args.length < 2 || args.length > 4)
+		{
+			System.err.println("Usage: replay <file> [game [ply]]");
+			System.exit(1);
+		}
+		int wanted = 0;
+		int ply = - 1;
+		try
+		{
+			if (args.length > 2)
+			{ wanted = Integer.parseInt(args[2]); }
+			if (args.length > 3)
+			{ ply = Integer.parseInt(args[3]); }
+		} catch (NumberFormatException e)
+		{
+			System.err.println("The game and ply must be integers.");
+			System.exit(1);
+		}
+
+		GameRecord game = new GameRecord();
+		long start = System.nanoTime();
+		long games = 0;
+		long plies = 0;
+		long[] results = new long[4];
+		try (GameLog.Reader reader = new GameLog.Reader(args[1]))
+		{
+			while (reader.next(game))
+			{
+				games++;
+				if (games == wanted)
+				{
+					printGame(game, ply);
+					return;
+				}
+				if (wanted != 0)
+				{ continue; }
+				plies += game.m_plies;
+				results[game.m_result & 3]++;
+				if (options.verify)
+				{
+					try
+					{
+						game.replay(game.m_plies);
+					} catch (IllegalStateException e)
+					{
+						System.out.println("Game " + games + ": " + e.getMessage());
+					}
+				}
+			}
+		}
+		if (wanted != 0)
+		{
+			System.err.println("The log has only " + games + " games");
+			System.exit(1);
+		}
+		double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+		System.out.printf("%d games, %d plies: white won %d, black won %d, drawn %d, unfinished %d%n", games, plies,
+				results[GameRecord.WHITE_WON], results[GameRecord.BLACK_WON], results[GameRecord.DRAW], results[GameRecord.UNFINISHED]);
+		System.out.printf("Read%s in %.3f s, %.0f games/second%n", options.verify ? " and replayed" : "", seconds, games / seconds);
+	}
+
+	private static void printGame(GameRecord game, int ply)
+	{
+		if (ply < 0 || ply > game.m_plies)
+		{ ply = game.m_plies; }
+		System.out.printf("%s after %d plies, white depth %d, black depth %d%n", GameRecord.resultName(game.m_result), game.m_plies, game.m_whiteDepth, game.m_blackDepth);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < game.m_plies; i++)
+		{
+			if (i % 2 == 0)
+			{ sb.append(i / 2 + 1).append(". "); }
+			sb.append(moveName(game.move(i))).append(i % 2 == 0 ? " " : System.lineSeparator());
+		}
+		System.out.println(sb);
+		System.out.println("Board after ply " + ply + ":");
+		game.replay(ply).printBoard(System.out);
+	}
+
+	/// Prints one short line for an AI move: the ply, side, move, score,
+	/// depth, nodes and milliseconds
+	private static void printMoveLine(PrintStream out, int ply, String side, SearchStats stats, PrintStream statsLog)
+	{
+		out.printf("%d %s %s %d %d %d %.1f%n", ply, side, moveName(stats.move), stats.score, stats.depth, stats.nodes + stats.qnodes, stats.elapsedNanos / 1e6);
+		if (statsLog != null)
+		{ statsLog.println(stats.toJson(side)); }
+	}
+
+	/// tournament <games> <A> <B>: plays games between two AIs given as depth
+	/// or depth/milliseconds per move
+	private static void tournament(String[] args, EngineOptions options) throws IOException
+	{
+		try
+		{
+			if (args.length != 4)
+			{ throw new IllegalArgumentException("Usage: tournament <games> <depth[/ms]> <depth[/ms]>"); }
+			int games = Integer.parseInt(args[1]);
+			Tournament t = new Tournament(options, options.parseLimits(args[2]), options.parseLimits(args[3]));
+			t.m_concurrency = options.concurrency;
+			t.m_maxPlies = options.maxPlies;
+			t.m_openingPlies = options.openingPlies;
+			if (options.openingsFile != null)
+			{ t.readOpenings(options.openingsFile); }
+			t.m_gameLog = options.openGameLog();
+			t.run(games);
+			if (t.m_gameLog != null)
+			{ t.m_gameLog.close(); }
+		} catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.exit(1);
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/// Prints what a search did, and writes it to statsLog as a line of JSON
+	/// unless statsLog is null
+	private static void printSearchInfo(String side, SearchStats stats, PrintStream statsLog)
+	{
+		System.out.printf("%s searched to depth %d (ply %d) in %.0f ms: %d nodes, %d quiescence nodes, %d leaves, branching factor %.2f, %.1f%% of cutoffs on the first move, re-searches %.1f%%%n",
+				side, stats.depth, stats.maxPly, stats.elapsedNanos / 1e6, stats.nodes, stats.qnodes, stats.leaves, stats.branchingFactor(), 100 * stats.firstMoveCutoffRate(), 100 * stats.researchRate());
+		if (statsLog != null)
+		{ statsLog.println(stats.toJson(side)); }
+	}
+
 	private int[] parseInput(String userInput)
 	{
 		char[] chars = userInput.toCharArray();
@@ -825,19 +1110,25 @@ class ChessState
 		}
 	}
 
-	private void AIvsPlayer(int firstArg, int secondArg) throws FileNotFoundException
+	private void AIvsPlayer(int firstArg, int secondArg, EngineOptions options) throws IOException
 	{
 		Scanner fileSc = new Scanner(System.in);
 		Scanner fileOrInputSc = new Scanner(System.in);
 		Scanner fileNameSc = null;
 		Scanner consoleSc = new Scanner(System.in);
 		boolean fromFileOrFromConsole = false;
-		ArrayList<ChessState> beenThere = new ArrayList<ChessState>();
+		PositionHistory beenThere = new PositionHistory();
+		ChessSearch search = options.newSearch();
+		PrintStream statsLog = options.openStatsLog();
+		GameLog gameLog = options.openGameLog();
+		OpeningBook book = options.openBook();
+		Ponderer ponderer = options.newPonderer(search);
 
 
 		boolean whiteHasWon = false;
 		boolean darkHasWon = false;
 		boolean hasntWon = true;
+		boolean draw = false;
 		boolean isValidMove = true;
 		PrintStream print;
 		String userInput;
@@ -846,6 +1137,7 @@ class ChessState
 
 		ChessState board = new ChessState();
 		board.resetBoard();
+		GameRecord record = new GameRecord(firstArg, 0);
 		System.out.println("Choose your Input:");
 		System.out.println("1) From file ");
 		System.out.println("2) From console ");
@@ -861,18 +1153,37 @@ class ChessState
 		while (true)
 		{
 			//AI
-			int[] bestMoveForWhite = board.alphabeta(firstArg, board, true, Integer.MIN_VALUE, Integer.MAX_VALUE, beenThere);
+			int[] pondered = ponderer != null ? ponderer.stop(board, true) : null;
+			int[] bestMoveForWhite = bookMove(book, board, true, beenThere);
+			if (bestMoveForWhite != null)
+			{ printBookMove(System.out, false, 0, "White", bestMoveForWhite); }
+			else
+			{
+				// The human played the expected reply and pondering already searched it
+				bestMoveForWhite = pondered != null ? pondered : search.search(board, true, beenThere, options.limits(firstArg));
+				printSearchInfo("White", search.stats(), statsLog);
+			}
 			if (board.isValidMove(bestMoveForWhite[1], bestMoveForWhite[2], bestMoveForWhite[3], bestMoveForWhite[4]))
 			{
+				record.add(bestMoveForWhite[1], bestMoveForWhite[2], bestMoveForWhite[3], bestMoveForWhite[4]);
 				if (board.move(bestMoveForWhite[1], bestMoveForWhite[2], bestMoveForWhite[3], bestMoveForWhite[4]))
 				{
 					whiteHasWon = true;
 					break;
 				}
+				beenThere.push(board.hashKey(false));
+			}
+			else
+			{
+				// Every move repeats a position, so the search found nothing to play
+				draw = true;
+				break;
 			}
 			board.printBoard(System.out);
 			System.out.println();
 
+			if (ponderer != null)
+			{ ponderer.start(board, false, beenThere, options.limits(firstArg)); }
 			if (input == 1)
 			{
 				userInput = fileNameSc.next();
@@ -896,10 +1207,12 @@ class ChessState
 			{
 				if (board.isValidMove(bestMoveForDark[0], bestMoveForDark[1], bestMoveForDark[2], bestMoveForDark[3]))
 				{
+					record.add(bestMoveForDark[0], bestMoveForDark[1], bestMoveForDark[2], bestMoveForDark[3]);
 					if (board.move(bestMoveForDark[0], bestMoveForDark[1], bestMoveForDark[2], bestMoveForDark[3]))
 					{
 						darkHasWon = true;
 					}
+					beenThere.push(board.hashKey(true));
 					break;
 				}
 				else
@@ -921,18 +1234,31 @@ class ChessState
 				break;
 			}
 	}
-		fileNameSc.close();
-		if (whiteHasWon)
+		if (ponderer != null)
+		{ ponderer.stop(board, false); }
+		record.m_result = whiteHasWon ? GameRecord.WHITE_WON : darkHasWon ? GameRecord.BLACK_WON : draw ? GameRecord.DRAW : GameRecord.UNFINISHED;
+		saveGame(gameLog, record);
+		if (fileNameSc != null)
+		{ fileNameSc.close(); }
+		if (draw)
+		{
+			System.out.println("Draw: every move repeats a position");
+		}
+		else if (whiteHasWon)
 		{
 			System.out.println("White has won");
 		}
-		else
+		else if (darkHasWon)
 		{
 			System.out.println("Dark has won");
 		}
+		else
+		{
+			System.out.println("The game was not finished");
+		}
 	}
 
-	private void PlayerVsAI(int firstArg, int secondArg) throws FileNotFoundException
+	private void PlayerVsAI(int firstArg, int secondArg, EngineOptions options) throws IOException
 	{
 		int[] bestMoveForDark;
 		Scanner fileSc = new Scanner(System.in);
@@ -940,12 +1266,18 @@ class ChessState
 		Scanner fileNameSc = null;
 		Scanner consoleSc = new Scanner(System.in);
 		boolean fromFileOrFromConsole = false;
-		ArrayList<ChessState> beenThere = new ArrayList<ChessState>();
+		PositionHistory beenThere = new PositionHistory();
+		ChessSearch search = options.newSearch();
+		PrintStream statsLog = options.openStatsLog();
+		GameLog gameLog = options.openGameLog();
+		OpeningBook book = options.openBook();
+		Ponderer ponderer = options.newPonderer(search);
 
 
 		boolean whiteHasWon = false;
 		boolean darkHasWon = false;
 		boolean hasntWon = true;
+		boolean draw = false;
 		boolean isValidMove = true;
 		PrintStream print;
 		String userInput;
@@ -954,6 +1286,7 @@ class ChessState
 
 		ChessState board = new ChessState();
 		board.resetBoard();
+		GameRecord record = new GameRecord(0, secondArg);
 		System.out.println("Choose your Input:");
 		System.out.println("1) From file ");
 		System.out.println("2) From console ");
@@ -968,6 +1301,8 @@ class ChessState
 		}
 		while (true)
 		{
+			if (ponderer != null)
+			{ ponderer.start(board, true, beenThere, options.limits(secondArg)); }
 			if (input == 1)
 			{
 				userInput = fileNameSc.next();
@@ -991,10 +1326,12 @@ class ChessState
 			{
 				if (board.isValidMove(bestMoveForWhite[0], bestMoveForWhite[1], bestMoveForWhite[2], bestMoveForWhite[3]))
 				{
+					record.add(bestMoveForWhite[0], bestMoveForWhite[1], bestMoveForWhite[2], bestMoveForWhite[3]);
 					if (board.move(bestMoveForWhite[0], bestMoveForWhite[1], bestMoveForWhite[2], bestMoveForWhite[3]))
 					{
 						whiteHasWon = true;
 					}
+					beenThere.push(board.hashKey(false));
 					break;
 				}
 				else
@@ -1012,39 +1349,80 @@ class ChessState
 				break;
 			}
 			//AI
-			bestMoveForDark = board.alphabeta(secondArg, board, false, Integer.MIN_VALUE, Integer.MAX_VALUE,beenThere);
+			int[] pondered = ponderer != null ? ponderer.stop(board, false) : null;
+			bestMoveForDark = bookMove(book, board, false, beenThere);
+			if (bestMoveForDark != null)
+			{ printBookMove(System.out, false, 0, "Black", bestMoveForDark); }
+			else
+			{
+				// The human played the expected reply and pondering already searched it
+				bestMoveForDark = pondered != null ? pondered : search.search(board, false, beenThere, options.limits(secondArg));
+				printSearchInfo("Black", search.stats(), statsLog);
+			}
 			if (board.isValidMove(bestMoveForDark[1], bestMoveForDark[2], bestMoveForDark[3], bestMoveForDark[4]))
 			{
+				record.add(bestMoveForDark[1], bestMoveForDark[2], bestMoveForDark[3], bestMoveForDark[4]);
 				if (board.move(bestMoveForDark[1], bestMoveForDark[2], bestMoveForDark[3], bestMoveForDark[4]))
 				{
+					darkHasWon = true;
 					break;
 				}
+				beenThere.push(board.hashKey(true));
+			}
+			else
+			{
+				// Every move repeats a position, so the search found nothing to play
+				draw = true;
+				break;
 			}
 
 			board.printBoard(System.out);
 			System.out.println();
 		}
-		fileNameSc.close();
-		if (whiteHasWon)
+		if (ponderer != null)
+		{ ponderer.stop(board, false); }
+		record.m_result = whiteHasWon ? GameRecord.WHITE_WON : darkHasWon ? GameRecord.BLACK_WON : draw ? GameRecord.DRAW : GameRecord.UNFINISHED;
+		saveGame(gameLog, record);
+		if (fileNameSc != null)
+		{ fileNameSc.close(); }
+		if (draw)
+		{
+			System.out.println("Draw: every move repeats a position");
+		}
+		else if (whiteHasWon)
 		{
 			System.out.println("White has won");
 		}
-		else
+		else if (darkHasWon)
 		{
 			System.out.println("Dark has won");
 		}
+		else
+		{
+			System.out.println("The game was not finished");
+		}
 	}
 
-	private void AIvsAI(int firstArg, int secondArg) throws FileNotFoundException
+	private void AIvsAI(int firstArg, int secondArg, EngineOptions options) throws IOException
 	{
 		int[] bestMoveForWhite;
 		int[] bestMoveForDark;
 		boolean whiteHasWon = false;
 		boolean darkHasWon = false;
 		boolean hasntWon = true;
-		ArrayList<ChessState> beenThere = new ArrayList<ChessState>();
+		boolean draw = false;
+		PositionHistory beenThere = new PositionHistory();
+		ChessSearch search = options.newSearch();
+		PrintStream statsLog = options.openStatsLog();
+		GameLog gameLog = options.openGameLog();
+		OpeningBook book = options.openBook();
 		PrintStream print;
 		print = new PrintStream("OutputToFile");
+		// Headless games print one short line per move through a buffer that is
+		// written out in large blocks instead of on every line
+		boolean headless = options.headless;
+		PrintStream out = headless ? new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false) : System.out;
+		int ply = 0;
 
 		if (firstArg == 2 && secondArg == 4)
 		{
@@ -1052,47 +1430,99 @@ class ChessState
 		}
 		ChessState s = new ChessState();
 		s.resetBoard();
-		s.printBoard(System.out);
-		System.out.println();
+		GameRecord record = new GameRecord(firstArg, secondArg);
+		if (! headless)
+		{
+			s.printBoard(System.out);
+			System.out.println();
+		}
 		while (hasntWon)
 		{
-			bestMoveForWhite = s.alphabeta(firstArg, s, true, Integer.MIN_VALUE, Integer.MAX_VALUE, beenThere);
+			bestMoveForWhite = bookMove(book, s, true, beenThere);
+			ply++;
+			if (bestMoveForWhite != null)
+			{ printBookMove(out, headless, ply, "White", bestMoveForWhite); }
+			else
+			{
+				bestMoveForWhite = search.search(s, true, beenThere, options.limits(firstArg));
+				if (headless)
+				{ printMoveLine(out, ply, "White", search.stats(), statsLog); }
+				else
+				{ printSearchInfo("White", search.stats(), statsLog); }
+			}
 			if (s.isValidMove(bestMoveForWhite[1], bestMoveForWhite[2], bestMoveForWhite[3], bestMoveForWhite[4]))
 			{
+				record.add(bestMoveForWhite[1], bestMoveForWhite[2], bestMoveForWhite[3], bestMoveForWhite[4]);
 				if (s.move(bestMoveForWhite[1], bestMoveForWhite[2], bestMoveForWhite[3], bestMoveForWhite[4]))
 				{
 					whiteHasWon = true;
 					break;
 				}
-				beenThere.add(s);
+				beenThere.push(s.hashKey(false));
+			}
+			else
+			{
+				// Every move repeats a position, so the search found nothing to play
+				draw = true;
+				break;
 			}
 
-			s.printBoard(System.out);
-			System.out.println();
+			if (! headless)
+			{
+				s.printBoard(System.out);
+				System.out.println();
+			}
 			if (! whiteHasWon)
 			{
-				bestMoveForDark = s.alphabeta(secondArg, s, false, Integer.MIN_VALUE, Integer.MAX_VALUE,beenThere);
+				bestMoveForDark = bookMove(book, s, false, beenThere);
+				ply++;
+				if (bestMoveForDark != null)
+				{ printBookMove(out, headless, ply, "Black", bestMoveForDark); }
+				else
+				{
+					bestMoveForDark = search.search(s, false, beenThere, options.limits(secondArg));
+					if (headless)
+					{ printMoveLine(out, ply, "Black", search.stats(), statsLog); }
+					else
+					{ printSearchInfo("Black", search.stats(), statsLog); }
+				}
 				if (s.isValidMove(bestMoveForDark[1], bestMoveForDark[2], bestMoveForDark[3], bestMoveForDark[4]))
 				{
+					record.add(bestMoveForDark[1], bestMoveForDark[2], bestMoveForDark[3], bestMoveForDark[4]);
 					if (s.move(bestMoveForDark[1], bestMoveForDark[2], bestMoveForDark[3], bestMoveForDark[4]))
 					{
 						darkHasWon = true;
 						hasntWon = false;
 					}
-					beenThere.add(s);
+					beenThere.push(s.hashKey(true));
+				}
+				else
+				{
+					draw = true;
+					break;
 				}
 			}
-			s.printBoard(System.out);
-			System.out.println();
+			if (! headless)
+			{
+				s.printBoard(System.out);
+				System.out.println();
+			}
 		}
-		if (whiteHasWon)
+		record.m_result = whiteHasWon ? GameRecord.WHITE_WON : darkHasWon ? GameRecord.BLACK_WON : draw ? GameRecord.DRAW : GameRecord.UNFINISHED;
+		saveGame(gameLog, record);
+		if (draw)
 		{
-			System.out.println("White has won");
+			out.println("Draw: every move repeats a position");
+		}
+		else if (whiteHasWon)
+		{
+			out.println("White has won");
 		}
 		else
 		{
-			System.out.println("Black has won");
+			out.println("Black has won");
 		}
+		out.flush();
 	}
 
 }
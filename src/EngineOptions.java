@@ -0,0 +1,298 @@
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+/// Settings for the AI players, read from the "--name value" options on the
+/// command line. Anything that is not an option is handed back to main.
+class EngineOptions
+{
+	/// Size of the transposition table in MB
+	int hashMb = 16;
+	/// One of the TranspositionTable replacement policies
+	int replacement = TranspositionTable.DEPTH_PREFERRED;
+	/// Milliseconds per AI move, or 0 to search to the full depth every time
+	long moveTimeMs = 0;
+	/// Nodes per AI move, or 0 for no limit
+	long nodeLimit = 0;
+	/// Search threads per AI player
+	int threads = 1;
+	/// With more than one thread: true for Lazy SMP, false to split the root moves
+	boolean lazySmp = false;
+	/// Principal variation search instead of plain alpha-beta
+	boolean pvs = true;
+	/// Quiescence search at the frontier
+	boolean quiesce = true;
+	/// Keep the search tables from move to move instead of starting afresh
+	boolean reuse = true;
+	/// Seed for the evaluation noise, so that games and node counts can be
+	/// reproduced. Null picks a different seed every run.
+	Long seed = null;
+	/// File that every AI move's search statistics are appended to, one JSON
+	/// object per line, or null for none
+	String statsLogFile = null;
+	/// Binary game log that every finished game is appended to, or null
+	String recordFile = null;
+	/// Opening book to play from before searching, or null
+	String bookFile = null;
+	/// book: how many plies of each game go into the book
+	int bookPlies = 16;
+	/// book: moves played in fewer games than this are left out
+	int bookMinGames = 1;
+	/// Endgame tables mapped from the --tablebases directory, or null
+	Tablebases tablebases = null;
+	/// replay: play every stored game through to check it
+	boolean verify = false;
+	/// Player vs AI: search while the human thinks
+	boolean ponder = false;
+	/// AI vs AI: skip the boards and print one short line per move
+	boolean headless = false;
+
+	/// tournament: games played at once
+	int concurrency = Runtime.getRuntime().availableProcessors();
+	/// tournament: plies after which a game is a draw
+	int maxPlies = 300;
+	/// tournament: random plies at the start of each game pair
+	int openingPlies = 4;
+	/// tournament: file of openings to use instead of random plies
+	String openingsFile = null;
+
+	/// Board file to start from instead of the usual opening, in the format
+	/// printBoard writes
+	String positionFile = null;
+	/// Which side moves first from positionFile
+	boolean whiteToMove = true;
+	/// perft: print the count under each root move
+	boolean divide = false;
+	/// perft: count the moves at the last ply without playing them
+	boolean bulk = true;
+
+	/// Reads the options out of args and returns the remaining arguments in order
+	String[] parse(String[] args)
+	{
+		ArrayList<String> positional = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++)
+		{
+			if (! args[i].startsWith("--"))
+			{
+				positional.add(args[i]);
+				continue;
+			}
+			if (i + 1 >= args.length)
+			{ throw new IllegalArgumentException("Option " + args[i] + " needs a value"); }
+			String name = args[i];
+			String value = args[++ i];
+			switch (name)
+			{
+				case "--hash":
+					hashMb = parseInt(name, value);
+					break;
+				case "--replace":
+					if (value.equals("always"))
+					{ replacement = TranspositionTable.ALWAYS_REPLACE; }
+					else if (value.equals("depth"))
+					{ replacement = TranspositionTable.DEPTH_PREFERRED; }
+					else
+					{ throw new IllegalArgumentException("--replace must be always or depth"); }
+					break;
+				case "--time":
+					moveTimeMs = parseLong(name, value);
+					break;
+				case "--nodes":
+					nodeLimit = parseLong(name, value);
+					break;
+				case "--threads":
+					threads = parseInt(name, value);
+					if (threads < 1)
+					{ throw new IllegalArgumentException("--threads must be at least 1"); }
+					break;
+				case "--parallel":
+					if (value.equals("root"))
+					{ lazySmp = false; }
+					else if (value.equals("smp"))
+					{ lazySmp = true; }
+					else
+					{ throw new IllegalArgumentException("--parallel must be root or smp"); }
+					break;
+				case "--seed":
+					seed = parseLong(name, value);
+					break;
+				case "--record":
+					recordFile = value;
+					break;
+				case "--book":
+					bookFile = value;
+					break;
+				case "--tablebases":
+					try
+					{
+						tablebases = Tablebases.load(value);
+					} catch (IOException e)
+					{
+						throw new IllegalArgumentException(e.getMessage());
+					}
+					break;
+				case "--book-plies":
+					bookPlies = parseInt(name, value);
+					break;
+				case "--book-min":
+					bookMinGames = parseInt(name, value);
+					break;
+				case "--verify":
+					verify = parseSwitch(name, value);
+					break;
+				case "--ponder":
+					ponder = parseSwitch(name, value);
+					break;
+				case "--headless":
+					headless = parseSwitch(name, value);
+					break;
+				case "--stats-log":
+					statsLogFile = value;
+					break;
+				case "--concurrency":
+					concurrency = parseInt(name, value);
+					if (concurrency < 1)
+					{ throw new IllegalArgumentException("--concurrency must be at least 1"); }
+					break;
+				case "--max-plies":
+					maxPlies = parseInt(name, value);
+					break;
+				case "--opening-plies":
+					openingPlies = parseInt(name, value);
+					break;
+				case "--openings":
+					openingsFile = value;
+					break;
+				case "--position":
+					positionFile = value;
+					break;
+				case "--side":
+					if (value.equals("white"))
+					{ whiteToMove = true; }
+					else if (value.equals("black"))
+					{ whiteToMove = false; }
+					else
+					{ throw new IllegalArgumentException("--side must be white or black"); }
+					break;
+				case "--divide":
+					divide = parseSwitch(name, value);
+					break;
+				case "--bulk":
+					bulk = parseSwitch(name, value);
+					break;
+				case "--pvs":
+					pvs = parseSwitch(name, value);
+					break;
+				case "--quiesce":
+					quiesce = parseSwitch(name, value);
+					break;
+				case "--reuse":
+					reuse = parseSwitch(name, value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + name);
+			}
+		}
+		return positional.toArray(new String[0]);
+	}
+
+	/// Makes a search configured by these options
+	ChessSearch newSearch()
+	{
+		ChessSearch search;
+		if (threads > 1 && lazySmp)
+		{ search = new LazySmpSearch(threads, hashMb, replacement); }
+		else if (threads > 1)
+		{ search = new ParallelSearch(threads, hashMb, replacement); }
+		else
+		{ search = new ChessSearch(new TranspositionTable(hashMb, replacement)); }
+		search.m_pvs = pvs;
+		search.m_quiesce = quiesce;
+		search.m_reuse = reuse;
+		search.m_tablebases = tablebases;
+		if (seed != null)
+		{ search.setSeed(seed); }
+		return search;
+	}
+
+	/// Makes a Ponderer for search, or returns null if --ponder is off
+	Ponderer newPonderer(ChessSearch search)
+	{
+		return ponder ? new Ponderer(search) : null;
+	}
+
+	/// Opens the --record game log for appending, or returns null if there is none
+	GameLog openGameLog() throws IOException
+	{
+		return recordFile == null ? null : new GameLog(recordFile);
+	}
+
+	/// Opens the --book opening book, or returns null if there is none. With
+	/// --seed, the choice between book moves is repeatable too.
+	OpeningBook openBook() throws IOException
+	{
+		if (bookFile == null)
+		{ return null; }
+		return new OpeningBook(bookFile, seed != null ? new SplittableRandom(seed) : new SplittableRandom());
+	}
+
+	/// Parses a tournament player's limits, given as depth or depth/milliseconds
+	ChessSearch.Limits parseLimits(String value)
+	{
+		int slash = value.indexOf('/');
+		int depth = parseInt("depth", slash < 0 ? value : value.substring(0, slash));
+		long millis = slash < 0 ? moveTimeMs : parseLong("time", value.substring(slash + 1));
+		if (depth < 0 || millis < 0 || (depth == 0 && millis == 0))
+		{ throw new IllegalArgumentException("A player needs a positive depth or time: " + value); }
+		return new ChessSearch.Limits(depth, millis, nodeLimit);
+	}
+
+	/// Opens the --stats-log file for appending, or returns null if there is none
+	PrintStream openStatsLog() throws FileNotFoundException
+	{
+		if (statsLogFile == null)
+		{ return null; }
+		return new PrintStream(new FileOutputStream(statsLogFile, true), true);
+	}
+
+	/// The limits for an AI that was given the specified depth on the command
+	/// line. With --time or --nodes the depth is only an upper bound.
+	ChessSearch.Limits limits(int depth)
+	{
+		return new ChessSearch.Limits(depth, moveTimeMs, nodeLimit);
+	}
+
+	private static boolean parseSwitch(String name, String value)
+	{
+		if (value.equals("on"))
+		{ return true; }
+		if (value.equals("off"))
+		{ return false; }
+		throw new IllegalArgumentException(name + " must be on or off");
+	}
+
+	private static long parseLong(String name, String value)
+	{
+		try
+		{
+			return Long.parseLong(value);
+		} catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Option " + name + " must be an integer.");
+		}
+	}
+
+	private static int parseInt(String name, String value)
+	{
+		try
+		{
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Option " + name + " must be an integer.");
+		}
+	}
+}
@@ -0,0 +1,145 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/// An archive of GameRecords in one binary file. The file starts with the
+/// magic "MMGL" and a version, then holds the games back to back. Each game
+/// is an 8-byte header (plies as an unsigned 16-bit count, the result, white's
+/// depth, black's depth and three reserved bytes) followed by two bytes per
+/// ply. All numbers are big-endian.
+///
+/// Games are only ever appended, each with one write, so several games can
+/// share a log and a crash loses at most the game being written.
+class GameLog implements Closeable
+{
+	static final int MAGIC = ('M' << 24) | ('M' << 16) | ('G' << 8) | 'L';
+	static final int VERSION = 1;
+	static final int FILE_HEADER_BYTES = 8;
+	static final int GAME_HEADER_BYTES = 8;
+
+	FileChannel m_channel;
+	ByteBuffer m_buffer = ByteBuffer.allocate(GAME_HEADER_BYTES + 2 * 256);
+
+	/// Opens fileName for appending, creating it if it does not exist
+	GameLog(String fileName) throws IOException
+	{
+		m_channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		if (m_channel.size() == 0)
+		{
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			while (header.hasRemaining())
+			{ m_channel.write(header); }
+		}
+	}
+
+	/// Appends a game. Safe to call from several threads.
+	synchronized void write(GameRecord game) throws IOException
+	{
+		int bytes = GAME_HEADER_BYTES + 2 * game.m_plies;
+		if (m_buffer.capacity() < bytes)
+		{ m_buffer = ByteBuffer.allocate(Math.max(bytes, 2 * m_buffer.capacity())); }
+		m_buffer.clear();
+		m_buffer.putShort((short) game.m_plies);
+		m_buffer.put((byte) game.m_result);
+		m_buffer.put((byte) game.m_whiteDepth);
+		m_buffer.put((byte) game.m_blackDepth);
+		m_buffer.put((byte) 0).put((byte) 0).put((byte) 0);
+		for (int i = 0; i < game.m_plies; i++)
+		{ m_buffer.putShort(game.m_moves[i]); }
+		m_buffer.flip();
+		while (m_buffer.hasRemaining())
+		{ m_channel.write(m_buffer); }
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		m_channel.close();
+	}
+
+	/// Reads the games of a log in order through a memory mapping. Files
+	/// bigger than a mapping can hold are mapped one window at a time.
+	static class Reader implements Closeable
+	{
+		static final long WINDOW_BYTES = 1L << 30;
+
+		FileChannel m_channel;
+		long m_size;
+		/// File offset of m_map's first byte
+		long m_mapStart;
+		MappedByteBuffer m_map;
+
+		Reader(String fileName) throws IOException
+		{
+			Path path = Paths.get(fileName);
+			m_channel = FileChannel.open(path, StandardOpenOption.READ);
+			m_size = m_channel.size();
+			map(0);
+			if (m_size < FILE_HEADER_BYTES || m_map.getInt() != MAGIC)
+			{ throw new IOException(fileName + " is not a game log"); }
+			int version = m_map.getInt();
+			if (version != VERSION)
+			{ throw new IOException(fileName + " has version " + version + ", but only version " + VERSION + " can be read"); }
+		}
+
+		/// Reads the next game into game and returns true, or returns false at
+		/// the end of the log
+		boolean next(GameRecord game) throws IOException
+		{
+			if (m_map.remaining() < GAME_HEADER_BYTES)
+			{ remap(); }
+			if (m_map.remaining() == 0)
+			{ return false; }
+			if (m_map.remaining() < GAME_HEADER_BYTES)
+			{ throw new IOException("The log ends in the middle of a game"); }
+			int start = m_map.position();
+			int plies = m_map.getShort(start) & 0xFFFF;
+			int bytes = GAME_HEADER_BYTES + 2 * plies;
+			if (m_map.remaining() < bytes)
+			{
+				remap();
+				start = m_map.position();
+				if (m_map.remaining() < bytes)
+				{ throw new IOException("The log ends in the middle of a game"); }
+			}
+			game.clear();
+			game.m_result = m_map.get(start + 2);
+			game.m_whiteDepth = m_map.get(start + 3) & 0xFF;
+			game.m_blackDepth = m_map.get(start + 4) & 0xFF;
+			if (game.m_moves.length < plies)
+			{ game.m_moves = new short[Math.max(plies, 2 * game.m_moves.length)]; }
+			m_map.position(start + GAME_HEADER_BYTES);
+			m_map.asShortBuffer().get(game.m_moves, 0, plies);
+			m_map.position(start + bytes);
+			game.m_plies = plies;
+			return true;
+		}
+
+		/// Moves the window to start at the current position, unless it already
+		/// reaches the end of the file
+		private void remap() throws IOException
+		{
+			long position = m_mapStart + m_map.position();
+			if (position + m_map.remaining() < m_size)
+			{ map(position); }
+		}
+
+		private void map(long start) throws IOException
+		{
+			m_mapStart = start;
+			m_map = m_channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_BYTES, m_size - start));
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			m_channel.close();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/// The moves of one game, packed into 16 bits each (see ChessState.packMove),
+/// plus how it ended and the depths the AIs searched to. Every game starts
+/// from the usual opening position, so the moves are all it takes to get
+/// back any position of the game.
+class GameRecord
+{
+	public static final int UNFINISHED = 0;
+	public static final int WHITE_WON = 1;
+	public static final int BLACK_WON = 2;
+	public static final int DRAW = 3;
+	/// The most plies a record can hold, since the count is stored in 16 bits
+	public static final int MAX_PLIES = 0xFFFF;
+
+	short[] m_moves = new short[128];
+	int m_plies;
+	int m_result = UNFINISHED;
+	/// Search depth of each AI, or 0 for a human player
+	int m_whiteDepth;
+	int m_blackDepth;
+
+	GameRecord()
+	{
+	}
+
+	GameRecord(int whiteDepth, int blackDepth)
+	{
+		m_whiteDepth = whiteDepth;
+		m_blackDepth = blackDepth;
+	}
+
+	/// Forgets every move so that the record can be reused
+	void clear()
+	{
+		m_plies = 0;
+		m_result = UNFINISHED;
+		m_whiteDepth = 0;
+		m_blackDepth = 0;
+	}
+
+	/// Appends a move. Promotions need no flag: replaying the move with
+	/// move() promotes the pawn again.
+	void add(int xSrc, int ySrc, int xDest, int yDest)
+	{
+		if (m_plies == MAX_PLIES)
+		{ throw new IllegalStateException("A game record holds at most " + MAX_PLIES + " plies"); }
+		if (m_plies == m_moves.length)
+		{
+			short[] bigger = new short[m_moves.length * 2];
+			System.arraycopy(m_moves, 0, bigger, 0, m_plies);
+			m_moves = bigger;
+		}
+		m_moves[m_plies++] = (short) ChessState.packMove(ySrc * 8 + xSrc, yDest * 8 + xDest, 0);
+	}
+
+	int move(int ply)
+	{
+		return m_moves[ply] & 0xFFFF;
+	}
+
+	/// Plays the first plies moves from the opening position with move() and
+	/// returns the board. Throws if a stored move is not legal, which means the
+	/// record is corrupt.
+	ChessState replay(int plies)
+	{
+		ChessState board = new ChessState();
+		for (int i = 0; i < plies; i++)
+		{
+			int m = move(i);
+			int from = ChessState.moveFrom(m);
+			int to = ChessState.moveTo(m);
+			if (! board.isValidMove(from & 7, from >> 3, to & 7, to >> 3))
+			{ throw new IllegalStateException("Ply " + (i + 1) + " (" + ChessState.moveName(m) + ") is not a legal move"); }
+			board.move(from & 7, from >> 3, to & 7, to >> 3);
+		}
+		return board;
+	}
+
+	static String resultName(int result)
+	{
+		switch (result)
+		{
+			case WHITE_WON:
+				return "White won";
+			case BLACK_WON:
+				return "Black won";
+			case DRAW:
+				return "Draw";
+			default:
+				return "Unfinished";
+		}
+	}
+}
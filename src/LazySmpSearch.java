@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/// Lazy SMP: helper threads run the same iterative deepening as the main
+/// search on the same root, and all of them share one transposition table.
+/// Nothing else is shared, so the only coordination is through the table;
+/// helpers fill it with results the main search then finds. Half the
+/// helpers search one ply deeper than the main thread so that they are
+/// not all working on the same part of the tree.
+///
+/// The main thread's result is the one played. When it finishes, the
+/// helpers are aborted and joined.
+class LazySmpSearch extends ChessSearch
+{
+	ForkJoinPool m_pool;
+	/// Each helper has its own board copy, move buffers, killers and history
+	ChessSearch[] m_helpers;
+
+	LazySmpSearch(int threads, int hashMb, int replacement)
+	{
+		super(new TranspositionTable(hashMb, replacement));
+		m_pool = new ForkJoinPool(threads - 1);
+		m_helpers = new ChessSearch[threads - 1];
+		for (int i = 0; i < m_helpers.length; i++)
+		{
+			m_helpers[i] = new ChessSearch(m_tt);
+			m_helpers[i].m_abort = m_abort;
+			m_helpers[i].m_random = m_random.split();
+		}
+	}
+
+	/// Seeds this search and gives every helper its own stream split from it
+	@Override
+	void setSeed(long seed)
+	{
+		super.setSeed(seed);
+		for (ChessSearch helper : m_helpers)
+		{ helper.m_random = m_random.split(); }
+	}
+
+	/// Clears the shared table once and each helper's killers and history
+	@Override
+	void newGame()
+	{
+		super.newGame();
+		for (ChessSearch helper : m_helpers)
+		{ helper.clearOrdering(); }
+	}
+
+	@Override
+	void close()
+	{
+		m_pool.shutdown();
+	}
+
+	@Override
+	int[] search(ChessState board, boolean white, PositionHistory beenThere, Limits limits)
+	{
+		int[] probed = probeRoot(board, white, beenThere);
+		if (probed != null)
+		{ return probed; }
+		prepareTable();
+		prepareOrdering(board, white);
+		m_abort.set(false);
+		ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		for (int i = 0; i < m_helpers.length; i++)
+		{
+			ChessSearch helper = m_helpers[i];
+			helper.copySettings(this);
+			helper.prepareOrdering(board, white);
+			int skew = (i + 1) % 2;
+			PositionHistory history = new PositionHistory(beenThere);
+			tasks.add(m_pool.submit(() -> helper.iterate(board, white, history, limits, skew)));
+		}
+		int[] result = iterate(board, white, beenThere, limits, 0);
+		m_abort.set(true);
+		for (ForkJoinTask<?> task : tasks)
+		{ task.join(); }
+		for (ChessSearch helper : m_helpers)
+		{ m_stats.add(helper.m_stats); }
+		savePv(board, white, m_stats.move);
+		return result;
+	}
+}
@@ -0,0 +1,181 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/// Moves to play from known positions without searching. The book file is
+/// the magic "MMOB" and a version, then 12-byte records of position key
+/// (ChessState.hashKey with the side to move), packed move and weight,
+/// sorted by key. The file is memory-mapped and searched in place, so
+/// opening it costs nothing however big it is.
+///
+/// Books are built from game logs (see GameLog). For a book from self-play,
+/// record a tournament and build from its log.
+class OpeningBook implements Closeable
+{
+	static final int MAGIC = ('M' << 24) | ('M' << 16) | ('O' << 8) | 'B';
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 8;
+	static final int RECORD_BYTES = 12;
+
+	FileChannel m_channel;
+	MappedByteBuffer m_map;
+	int m_records;
+	/// Picks between the moves of a position in proportion to their weights
+	SplittableRandom m_random;
+
+	OpeningBook(String fileName, SplittableRandom random) throws IOException
+	{
+		m_channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		long size = m_channel.size();
+		if (size > Integer.MAX_VALUE)
+		{ throw new IOException(fileName + " is too big for an opening book"); }
+		m_map = m_channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		if (size < HEADER_BYTES || m_map.getInt(0) != MAGIC || (size - HEADER_BYTES) % RECORD_BYTES != 0)
+		{ throw new IOException(fileName + " is not an opening book"); }
+		if (m_map.getInt(4) != VERSION)
+		{ throw new IOException(fileName + " has version " + m_map.getInt(4) + ", but only version " + VERSION + " can be read"); }
+		m_records = (int) ((size - HEADER_BYTES) / RECORD_BYTES);
+		m_random = random;
+	}
+
+	/// Returns a book move for the player to move on board, packed, or 0 if
+	/// the position is not in the book. The move is checked against the board,
+	/// so a key collision never yields an illegal move.
+	int probe(ChessState board, boolean white)
+	{
+		long key = board.hashKey(white);
+		// The first record whose key is not less than key
+		int lo = 0;
+		int hi = m_records;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (key(mid) < key)
+			{ lo = mid + 1; }
+			else
+			{ hi = mid; }
+		}
+		long total = 0;
+		int end = lo;
+		while (end < m_records && key(end) == key)
+		{ total += weight(end++); }
+		if (total == 0)
+		{ return 0; }
+		long pick = m_random.nextLong(total);
+		for (int i = lo; i < end; i++)
+		{
+			pick -= weight(i);
+			if (pick < 0)
+			{
+				int m = move(i);
+				int from = ChessState.moveFrom(m);
+				int to = ChessState.moveTo(m);
+				if (! board.isValidMove(from & 7, from >> 3, to & 7, to >> 3) || board.isWhite(from & 7, from >> 3) != white)
+				{ return 0; }
+				return m;
+			}
+		}
+		return 0;
+	}
+
+	private long key(int i)
+	{
+		return m_map.getLong(HEADER_BYTES + i * RECORD_BYTES);
+	}
+
+	private int move(int i)
+	{
+		return m_map.getShort(HEADER_BYTES + i * RECORD_BYTES + 8) & 0xFFFF;
+	}
+
+	private int weight(int i)
+	{
+		return m_map.getShort(HEADER_BYTES + i * RECORD_BYTES + 10) & 0xFFFF;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		m_channel.close();
+	}
+
+	/// Builds a book from the first maxPlies plies of every game in the logs.
+	/// A move scores 2 for each game its side won, 0 for each it lost and 1
+	/// otherwise; moves played fewer than minGames times, or that never
+	/// scored, are left out. Returns the number of records written.
+	static int build(String bookFile, String[] logFiles, int maxPlies, int minGames) throws IOException
+	{
+		// key -> move -> {games, score}
+		HashMap<Long, HashMap<Integer, int[]>> positions = new HashMap<Long, HashMap<Integer, int[]>>();
+		GameRecord game = new GameRecord();
+		for (String logFile : logFiles)
+		{
+			try (GameLog.Reader reader = new GameLog.Reader(logFile))
+			{
+				while (reader.next(game))
+				{
+					ChessState board = new ChessState();
+					int plies = Math.min(maxPlies, game.m_plies);
+					for (int i = 0; i < plies; i++)
+					{
+						int m = game.move(i);
+						int from = ChessState.moveFrom(m);
+						int to = ChessState.moveTo(m);
+						if (! board.isValidMove(from & 7, from >> 3, to & 7, to >> 3))
+						{ break; }
+						boolean white = board.isWhite(from & 7, from >> 3);
+						int[] counts = positions.computeIfAbsent(board.hashKey(white), k -> new HashMap<Integer, int[]>())
+								.computeIfAbsent(m, k -> new int[2]);
+						counts[0]++;
+						if (game.m_result == (white ? GameRecord.WHITE_WON : GameRecord.BLACK_WON))
+						{ counts[1] += 2; }
+						else if (game.m_result != (white ? GameRecord.BLACK_WON : GameRecord.WHITE_WON))
+						{ counts[1] += 1; }
+						if (board.move(from & 7, from >> 3, to & 7, to >> 3))
+						{ break; }
+					}
+				}
+			}
+		}
+
+		ArrayList<Long> keys = new ArrayList<Long>(positions.keySet());
+		keys.sort(null);
+		int records = 0;
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		try (FileChannel out = FileChannel.open(Paths.get(bookFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			buffer.putInt(MAGIC).putInt(VERSION);
+			for (long key : keys)
+			{
+				for (Map.Entry<Integer, int[]> e : positions.get(key).entrySet())
+				{
+					int[] counts = e.getValue();
+					if (counts[0] < minGames || counts[1] == 0)
+					{ continue; }
+					if (buffer.remaining() < RECORD_BYTES)
+					{ flush(out, buffer); }
+					buffer.putLong(key).putShort((short) (int) e.getKey()).putShort((short) Math.min(0xFFFF, counts[1]));
+					records++;
+				}
+			}
+			flush(out, buffer);
+		}
+		return records;
+	}
+
+	private static void flush(FileChannel out, ByteBuffer buffer) throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining())
+		{ out.write(buffer); }
+		buffer.clear();
+	}
+}
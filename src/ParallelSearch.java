@@ -0,0 +1,249 @@
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/// Iterative deepening that splits the root moves across a ForkJoinPool.
+/// Each iteration searches the previous best move on the calling thread to
+/// get a bound, then hands the other root moves to the pool. Every root move
+/// is searched with the best score found so far as its bound, so a move that
+/// starts late profits from the cutoffs of those that finished before it.
+///
+/// Each pool thread borrows a ChessSearch worker with its own board copy,
+/// move buffers, ordering tables and transposition table. The table memory
+/// is split evenly between the workers.
+class ParallelSearch extends ChessSearch
+{
+	ForkJoinPool m_pool;
+	int m_threads;
+	int m_workerHashMb;
+	int m_replacement;
+	/// Every worker ever made, so that they can be reset between searches
+	ArrayList<ChessSearch> m_workers;
+	ConcurrentLinkedQueue<ChessSearch> m_idle;
+
+	/// The best root score so far, from the point of view of the player to
+	/// move, which later root moves are searched against; and its move
+	int m_rootScore;
+	int m_rootMove;
+	/// Set when a worker ran out of time in the current iteration
+	volatile boolean m_iterationStopped;
+
+	ParallelSearch(int threads, int hashMb, int replacement)
+	{
+		super(new TranspositionTable(Math.max(1, hashMb / threads), replacement));
+		m_threads = threads;
+		m_workerHashMb = Math.max(1, hashMb / threads);
+		m_replacement = replacement;
+		m_pool = new ForkJoinPool(threads);
+		m_workers = new ArrayList<ChessSearch>();
+		m_idle = new ConcurrentLinkedQueue<ChessSearch>();
+		for (int i = 0; i < threads; i++)
+		{ m_idle.add(newWorker()); }
+	}
+
+	private ChessSearch newWorker()
+	{
+		ChessSearch worker = new ChessSearch(new TranspositionTable(m_workerHashMb, m_replacement));
+		worker.m_abort = m_abort;
+		worker.copySettings(this);
+		synchronized (m_workers)
+		{
+			worker.m_random = m_random.split();
+			m_workers.add(worker);
+		}
+		return worker;
+	}
+
+	/// Seeds this search and gives every worker its own stream split from it
+	@Override
+	void setSeed(long seed)
+	{
+		super.setSeed(seed);
+		synchronized (m_workers)
+		{
+			for (ChessSearch worker : m_workers)
+			{ worker.m_random = m_random.split(); }
+		}
+	}
+
+	@Override
+	void newGame()
+	{
+		super.newGame();
+		synchronized (m_workers)
+		{
+			for (ChessSearch worker : m_workers)
+			{ worker.newGame(); }
+		}
+	}
+
+	@Override
+	void close()
+	{
+		m_pool.shutdown();
+	}
+
+	/// Like ChessSearch.search, but the root moves of each iteration are
+	/// searched in parallel. The node limit is split evenly between threads.
+	@Override
+	int[] search(ChessState board, boolean white, PositionHistory beenThere, Limits limits)
+	{
+		int[] probed = probeRoot(board, white, beenThere);
+		if (probed != null)
+		{ return probed; }
+		long start = System.nanoTime();
+		long deadline = limits.millis > 0 ? start + limits.millis * 1000000 : 0;
+		long nodeLimit = limits.nodes > 0 ? Math.max(1, limits.nodes / m_threads) : 0;
+		m_abort.set(false);
+		boolean cleared = prepareTable();
+		prepareOrdering(board, white);
+		startClock(deadline, nodeLimit);
+		synchronized (m_workers)
+		{
+			for (ChessSearch worker : m_workers)
+			{
+				if (cleared)
+				{ worker.m_tt.clear(); }
+				else
+				{ worker.m_tt.age(); }
+				worker.copySettings(this);
+				worker.prepareOrdering(board, white);
+				worker.startClock(deadline, nodeLimit);
+			}
+		}
+
+		ChessState copy = new ChessState(board);
+		int count = rootMoves(copy, white, beenThere);
+		if (count < 2)
+		{
+			int[] result = iterate(board, white, beenThere, limits, 0);
+			savePv(board, white, m_stats.move);
+			return result;
+		}
+		int[] moves = m_moves[0];
+		int maxDepth = limits.depth > 0 ? Math.min(limits.depth, MAX_PLY - 1) : MAX_PLY - 1;
+		int bestScore = 0;
+		int bestMove = 0;
+		for (int depth = 1; depth <= maxDepth; depth++)
+		{
+			long nodesBefore = totalNodes();
+			long iterationStart = System.nanoTime();
+			setMustFinish(depth == 1);
+			// Previous best first, then captures by MVV-LVA and the rest by history
+			scoreMoves(copy, 0, 0, count, bestMove, white);
+			for (int i = 0; i < count; i++)
+			{ pickMove(0, i, count); }
+
+			int first = moves[0];
+			int score = searchMove(copy, white, first, depth, - INFINITY, INFINITY, beenThere);
+			if (m_stopped)
+			{ break; }
+			m_rootScore = score;
+			m_rootMove = first;
+			m_iterationStopped = false;
+			ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+			for (int i = 1; i < count; i++)
+			{
+				int move = moves[i];
+				int d = depth;
+				tasks.add(m_pool.submit(() -> searchRootMove(copy, white, move, d, beenThere)));
+			}
+			for (ForkJoinTask<?> task : tasks)
+			{ task.join(); }
+			if (m_iterationStopped)
+			{ break; }
+
+			bestScore = m_rootScore;
+			bestMove = m_rootMove;
+			m_stats.depth = depth;
+			m_stats.iterationNodes[depth] = totalNodes() - nodesBefore;
+			m_stats.iterationNanos[depth] = System.nanoTime() - iterationStart;
+			if (Math.abs(bestScore) >= WIN_SCORE)
+			{ break; }
+			if (limits.millis > 0 && (System.nanoTime() - start) / 1000000 > limits.millis / 2)
+			{ break; }
+		}
+		synchronized (m_workers)
+		{
+			for (ChessSearch worker : m_workers)
+			{ m_stats.add(worker.m_stats); }
+		}
+		m_stats.finish(bestScore, bestMove);
+		savePv(board, white, bestMove);
+		return result(white ? bestScore : - bestScore, bestMove);
+	}
+
+	/// Runs on a pool thread
+	private void searchRootMove(ChessState root, boolean white, int move, int depth, PositionHistory beenThere)
+	{
+		ChessSearch worker = m_idle.poll();
+		if (worker == null)
+		{
+			worker = newWorker();
+			worker.m_mustFinish = m_mustFinish;
+		}
+		try
+		{
+			int alpha;
+			synchronized (this)
+			{ alpha = m_rootScore; }
+			int score = worker.searchMove(new ChessState(root), white, move, depth, alpha, INFINITY, new PositionHistory(beenThere));
+			if (worker.m_stopped)
+			{
+				m_iterationStopped = true;
+				m_abort.set(true);
+				return;
+			}
+			synchronized (this)
+			{
+				if (score > m_rootScore)
+				{
+					m_rootScore = score;
+					m_rootMove = move;
+				}
+			}
+		} finally
+		{
+			m_idle.add(worker);
+		}
+	}
+
+	/// Writes the root moves that do not repeat a position into m_moves[0]
+	private int rootMoves(ChessState board, boolean white, PositionHistory beenThere)
+	{
+		int[] moves = m_moves[0];
+		int count = board.generateMoves(white, moves);
+		int kept = 0;
+		for (int i = 0; i < count; i++)
+		{
+			board.makeMove(moves[i]);
+			boolean repeats = beenThere.contains(board.hashKey(! white));
+			board.unmakeMove(moves[i]);
+			if (! repeats)
+			{ moves[kept++] = moves[i]; }
+		}
+		return kept;
+	}
+
+	private void setMustFinish(boolean mustFinish)
+	{
+		m_mustFinish = mustFinish;
+		synchronized (m_workers)
+		{
+			for (ChessSearch worker : m_workers)
+			{ worker.m_mustFinish = mustFinish; }
+		}
+	}
+
+	private long totalNodes()
+	{
+		long nodes = m_stats.nodes;
+		synchronized (m_workers)
+		{
+			for (ChessSearch worker : m_workers)
+			{ nodes += worker.m_stats.nodes; }
+		}
+		return nodes;
+	}
+}
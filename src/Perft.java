@@ -0,0 +1,99 @@
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/// Counts the positions reachable in a fixed number of plies, using the same
+/// ChessMoveIterator and move() that the game uses. The counts for a position
+/// never change unless the move rules do, so they catch generator bugs, and
+/// the nodes per second measure the generator without any search around it.
+///
+/// Taking a king ends the game: move() removes the loser's pieces, so the
+/// position after it has no moves and adds nothing below the last ply.
+class Perft
+{
+	/// Count the moves at the last ply instead of playing them
+	boolean m_bulk = true;
+	/// Print the count under each root move
+	boolean m_divide = false;
+	/// Root moves are split between this many threads
+	int m_threads = 1;
+
+	/// Counts the leaves depth plies below board and prints the total and
+	/// the speed to System.out. Returns the number of leaves.
+	long run(ChessState board, boolean white, int depth)
+	{
+		long start = System.nanoTime();
+		ArrayList<ChessState.ChessMove> moves = new ArrayList<ChessState.ChessMove>();
+		ChessState.ChessMoveIterator it = board.iterator(white);
+		while (it.hasNext())
+		{ moves.add(it.next()); }
+		long[] counts = new long[moves.size()];
+		if (depth == 0)
+		{ counts = new long[0]; }
+		else if (m_threads > 1)
+		{
+			ForkJoinPool pool = new ForkJoinPool(m_threads);
+			ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+			for (int i = 0; i < moves.size(); i++)
+			{
+				int index = i;
+				long[] out = counts;
+				tasks.add(pool.submit(() -> { out[index] = countMove(board, moves.get(index), ! white, depth - 1); }));
+			}
+			for (ForkJoinTask<?> task : tasks)
+			{ task.join(); }
+			pool.shutdown();
+		}
+		else
+		{
+			for (int i = 0; i < moves.size(); i++)
+			{ counts[i] = countMove(board, moves.get(i), ! white, depth - 1); }
+		}
+		long elapsed = Math.max(1, System.nanoTime() - start);
+
+		long nodes = depth == 0 ? 1 : 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			nodes += counts[i];
+			if (m_divide)
+			{
+				ChessState.ChessMove m = moves.get(i);
+				int move = ChessState.packMove(m.ySource * 8 + m.xSource, m.yDest * 8 + m.xDest, 0);
+				System.out.println(ChessState.moveName(move) + ": " + counts[i]);
+			}
+		}
+		System.out.println("Nodes: " + nodes);
+		System.out.printf("Time: %.3f s%n", elapsed / 1e9);
+		System.out.printf("Nodes/second: %.0f%n", nodes * 1e9 / elapsed);
+		return nodes;
+	}
+
+	/// Counts the leaves depth plies below board with white to move
+	long count(ChessState board, boolean white, int depth)
+	{
+		if (depth == 0)
+		{ return 1; }
+		long nodes = 0;
+		ChessState.ChessMoveIterator it = board.iterator(white);
+		if (depth == 1 && m_bulk)
+		{
+			while (it.hasNext())
+			{
+				it.next();
+				nodes++;
+			}
+			return nodes;
+		}
+		while (it.hasNext())
+		{ nodes += countMove(board, it.next(), ! white, depth - 1); }
+		return nodes;
+	}
+
+	/// Plays m on a copy of board and counts the leaves depth plies below it
+	private long countMove(ChessState board, ChessState.ChessMove m, boolean white, int depth)
+	{
+		ChessState child = new ChessState(board);
+		child.move(m.xSource, m.ySource, m.xDest, m.yDest);
+		return count(child, white, depth);
+	}
+}
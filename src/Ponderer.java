@@ -0,0 +1,123 @@
+/// Searches on the opponent's time. While a human thinks about a move,
+/// start() guesses their reply from the transposition table (the reply the
+/// AI's own search expected) and searches the position after it on a
+/// background thread, exactly as the AI's next search would. If the human
+/// plays that reply, stop() hands back the finished search and the AI
+/// answers at once. Otherwise the ponder search is cancelled, and the
+/// positions it filled the table with give the next search a head start.
+///
+/// With no expected reply in the table, every reply is pondered instead, by
+/// searching the human's position one ply deeper than the AI would.
+///
+/// The ponder search runs on the AI's own ChessSearch, which is safe
+/// because the AI never searches while a human is thinking and stop()
+/// waits for the ponder search to unwind.
+class Ponderer
+{
+	ChessSearch m_search;
+	Thread m_thread;
+	/// The AI's limits, which a pondered result must have met to be played
+	ChessSearch.Limits m_limits;
+	/// ChessState.hashKey of the pondered position with the AI to move, or 0
+	/// when pondering every reply
+	long m_key;
+	/// Set by the ponder thread when its search returns
+	volatile int[] m_result;
+	/// Set if stop() had to cut the ponder search short
+	boolean m_aborted;
+
+	Ponderer(ChessSearch search)
+	{
+		m_search = search;
+	}
+
+	/// Starts pondering board, with the human to move as white says. limits
+	/// are the AI's own; the time limit is dropped, since the search is
+	/// stopped when the reply arrives instead.
+	void start(ChessState board, boolean white, PositionHistory beenThere, ChessSearch.Limits limits)
+	{
+		stop(board, white);
+		m_limits = limits;
+		m_result = null;
+		m_key = 0;
+		ChessState copy = new ChessState(board);
+		PositionHistory history = new PositionHistory(beenThere);
+		ChessSearch.Limits ponderLimits;
+		int reply = expectedReply(board, white);
+		if (reply != 0)
+		{
+			int from = ChessState.moveFrom(reply);
+			int to = ChessState.moveTo(reply);
+			copy.move(from & 7, from >> 3, to & 7, to >> 3);
+			history.push(copy.hashKey(! white));
+			m_key = copy.hashKey(! white);
+			white = ! white;
+			ponderLimits = new ChessSearch.Limits(limits.depth, 0, limits.nodes);
+		}
+		else
+		{
+			boolean depthOnly = limits.millis == 0 && limits.nodes == 0 && limits.depth > 0;
+			ponderLimits = new ChessSearch.Limits(depthOnly ? limits.depth + 1 : 0, 0, 0);
+		}
+		boolean side = white;
+		m_thread = new Thread(() -> m_result = m_search.search(copy, side, history, ponderLimits), "ponder");
+		m_thread.setDaemon(true);
+		m_thread.start();
+	}
+
+	/// Stops pondering, if it is running, and waits for the search to unwind.
+	/// Returns the pondered result, in the form ChessSearch.search returns, if
+	/// board with the player to move as white says is the position that was
+	/// pondered and the search got as far as the AI's limits would have let
+	/// it. Otherwise returns null, and the next search starts from the
+	/// transposition table the ponder search filled.
+	int[] stop(ChessState board, boolean white)
+	{
+		if (m_thread == null)
+		{ return null; }
+		m_aborted = m_thread.isAlive();
+		boolean interrupted = false;
+		// A search that has only just started may clear the abort flag, so
+		// keep setting it until the thread is gone
+		while (m_thread.isAlive())
+		{
+			m_search.m_abort.set(true);
+			try
+			{
+				m_thread.join(10);
+			} catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		m_search.m_abort.set(false);
+		m_thread = null;
+		if (interrupted)
+		{ Thread.currentThread().interrupt(); }
+
+		boolean hit = m_key != 0 && m_key == board.hashKey(white) && m_result != null;
+		boolean longEnough = m_limits.millis > 0 && m_search.m_stats.elapsedNanos >= m_limits.millis * 1000000;
+		if (hit && (! m_aborted || longEnough))
+		{ return m_result; }
+		m_search.m_keepTable = true;
+		return null;
+	}
+
+	/// The reply the AI's last search expected, packed, or 0 if the table
+	/// has none or it is not a legal move for the player to move
+	private int expectedReply(ChessState board, boolean white)
+	{
+		long entry = m_search.m_tt.probe(board.hashKey(white));
+		if (entry == 0)
+		{ return 0; }
+		int m = TranspositionTable.move(entry);
+		int from = ChessState.moveFrom(m);
+		int to = ChessState.moveTo(m);
+		if (m == 0 || ! board.isValidMove(from & 7, from >> 3, to & 7, to >> 3) || board.isWhite(from & 7, from >> 3) != white)
+		{ return 0; }
+		// A reply that takes the king ends the game, so there is nothing to ponder
+		if (board.getPiece(to & 7, to >> 3) == ChessState.King)
+		{ return 0; }
+		return m;
+	}
+}
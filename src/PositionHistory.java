@@ -0,0 +1,129 @@
+/// The positions on the current game and search path, by Zobrist key.
+/// Positions are pushed as moves are played and popped as they are taken
+/// back. contains() is a single hash lookup however long the game gets.
+class PositionHistory
+{
+	long[] m_stack;
+	int m_size;
+	/// Open-addressed set of the keys on the stack, with a count per key since
+	/// the same position can be on the path more than once
+	long[] m_keys;
+	int[] m_counts;
+	int m_mask;
+	/// Key 0 marks an empty slot, so a real key of 0 is counted here instead
+	int m_zeroCount;
+
+	PositionHistory()
+	{
+		m_stack = new long[256];
+		m_keys = new long[512];
+		m_counts = new int[512];
+		m_mask = 511;
+	}
+
+	PositionHistory(PositionHistory that)
+	{
+		m_stack = that.m_stack.clone();
+		m_size = that.m_size;
+		m_keys = that.m_keys.clone();
+		m_counts = that.m_counts.clone();
+		m_mask = that.m_mask;
+		m_zeroCount = that.m_zeroCount;
+	}
+
+	/// Returns true iff the position with this key is on the path
+	boolean contains(long key)
+	{
+		if (key == 0)
+		{ return m_zeroCount > 0; }
+		for (int i = slot(key); m_keys[i] != 0; i = (i + 1) & m_mask)
+		{
+			if (m_keys[i] == key)
+			{ return true; }
+		}
+		return false;
+	}
+
+	void push(long key)
+	{
+		if (m_size == m_stack.length)
+		{
+			long[] bigger = new long[m_stack.length * 2];
+			System.arraycopy(m_stack, 0, bigger, 0, m_size);
+			m_stack = bigger;
+			rehash(m_keys.length * 2);
+		}
+		m_stack[m_size++] = key;
+		add(key);
+	}
+
+	/// Removes and returns the most recently pushed key
+	long pop()
+	{
+		long key = m_stack[-- m_size];
+		if (key == 0)
+		{
+			m_zeroCount--;
+			return key;
+		}
+		int i = slot(key);
+		while (m_keys[i] != key)
+		{ i = (i + 1) & m_mask; }
+		if (-- m_counts[i] == 0)
+		{ remove(i); }
+		return key;
+	}
+
+	private int slot(long key)
+	{
+		return (int) (key ^ (key >>> 32)) & m_mask;
+	}
+
+	private void add(long key)
+	{
+		if (key == 0)
+		{
+			m_zeroCount++;
+			return;
+		}
+		int i = slot(key);
+		while (m_keys[i] != 0 && m_keys[i] != key)
+		{ i = (i + 1) & m_mask; }
+		m_keys[i] = key;
+		m_counts[i]++;
+	}
+
+	/// Empties slot i, then moves later entries of the same probe run back
+	/// so that no lookup stops early at the hole
+	private void remove(int i)
+	{
+		int hole = i;
+		int j = i;
+		while (true)
+		{
+			j = (j + 1) & m_mask;
+			if (m_keys[j] == 0)
+			{ break; }
+			int home = slot(m_keys[j]);
+			// Move the entry if its home slot is not between the hole and j
+			if (((j - home) & m_mask) >= ((j - hole) & m_mask))
+			{
+				m_keys[hole] = m_keys[j];
+				m_counts[hole] = m_counts[j];
+				hole = j;
+			}
+		}
+		m_keys[hole] = 0;
+		m_counts[hole] = 0;
+	}
+
+	private void rehash(int capacity)
+	{
+		m_keys = new long[capacity];
+		m_counts = new int[capacity];
+		m_mask = capacity - 1;
+		m_zeroCount = 0;
+		for (int i = 0; i < m_size; i++)
+		{ add(m_stack[i]); }
+	}
+}
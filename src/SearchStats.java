@@ -0,0 +1,169 @@
+import java.util.Locale;
+
+/// What one call to ChessSearch.search did, collected as it searches. The
+/// search hands out a copy along with its move, so that callers can print,
+/// log or compare searches without reaching into the searcher.
+class SearchStats
+{
+	/// The move played, packed, and its score for the side that moved
+	int move;
+	int score;
+	/// The deepest iteration that finished
+	int depth;
+	/// Nodes of the main search, not counting quiescence
+	long nodes;
+	/// Nodes visited by the quiescence search
+	long qnodes;
+	/// Main search nodes at the horizon (depth 0)
+	long leaves;
+	/// Main search nodes that failed high, and those that did so on the first move searched
+	long betaCutoffs;
+	long firstMoveCutoffs;
+	long nullWindowSearches;
+	/// Null-window searches that beat alpha and had to be searched again
+	long researches;
+	/// Positions scored from the tablebases instead of searched
+	long tablebaseHits;
+	/// The deepest ply reached, quiescence included
+	int maxPly;
+	long startNanos;
+	long elapsedNanos;
+	/// Nodes and nanoseconds spent on each iteration, indexed by depth
+	long[] iterationNodes = new long[ChessSearch.MAX_PLY];
+	long[] iterationNanos = new long[ChessSearch.MAX_PLY];
+
+	SearchStats()
+	{
+	}
+
+	SearchStats(SearchStats that)
+	{
+		move = that.move;
+		score = that.score;
+		depth = that.depth;
+		add(that);
+		startNanos = that.startNanos;
+		elapsedNanos = that.elapsedNanos;
+		iterationNodes = that.iterationNodes.clone();
+		iterationNanos = that.iterationNanos.clone();
+	}
+
+	/// Clears every counter and starts the clock
+	void reset()
+	{
+		move = 0;
+		score = 0;
+		depth = 0;
+		nodes = 0;
+		qnodes = 0;
+		leaves = 0;
+		betaCutoffs = 0;
+		firstMoveCutoffs = 0;
+		nullWindowSearches = 0;
+		researches = 0;
+		tablebaseHits = 0;
+		maxPly = 0;
+		for (int i = 0; i < iterationNodes.length; i++)
+		{
+			iterationNodes[i] = 0;
+			iterationNanos[i] = 0;
+		}
+		startNanos = System.nanoTime();
+		elapsedNanos = 0;
+	}
+
+	/// Adds the node and cutoff counts of a helper thread's search
+	void add(SearchStats that)
+	{
+		nodes += that.nodes;
+		qnodes += that.qnodes;
+		leaves += that.leaves;
+		betaCutoffs += that.betaCutoffs;
+		firstMoveCutoffs += that.firstMoveCutoffs;
+		nullWindowSearches += that.nullWindowSearches;
+		researches += that.researches;
+		tablebaseHits += that.tablebaseHits;
+		maxPly = Math.max(maxPly, that.maxPly);
+	}
+
+	/// Records the result and stops the clock
+	void finish(int score, int move)
+	{
+		this.score = score;
+		this.move = move;
+		elapsedNanos = System.nanoTime() - startNanos;
+	}
+
+	/// Nodes of the last finished iteration divided by nodes of the one
+	/// before it, or 0 if fewer than two iterations finished
+	double branchingFactor()
+	{
+		if (depth < 2 || iterationNodes[depth - 1] == 0)
+		{ return 0; }
+		return (double) iterationNodes[depth] / iterationNodes[depth - 1];
+	}
+
+	/// The branching factor a uniform tree would need to have as many nodes
+	/// as the main search did at its depth
+	double effectiveBranchingFactor()
+	{
+		return depth == 0 ? 0 : Math.pow(nodes, 1.0 / depth);
+	}
+
+	/// The share of cutoffs that came from the first move searched, which is
+	/// high when the move ordering is good
+	double firstMoveCutoffRate()
+	{
+		return betaCutoffs == 0 ? 0 : (double) firstMoveCutoffs / betaCutoffs;
+	}
+
+	/// The share of null-window searches that had to be repeated with a full window
+	double researchRate()
+	{
+		return nullWindowSearches == 0 ? 0 : (double) researches / nullWindowSearches;
+	}
+
+	/// Nodes of both searches per second
+	double nodesPerSecond()
+	{
+		return elapsedNanos == 0 ? 0 : (nodes + qnodes) * 1e9 / elapsedNanos;
+	}
+
+	/// The statistics as one line of JSON, for a search by side (such as "White")
+	String toJson(String side)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"side\":\"").append(side).append('"');
+		sb.append(",\"move\":\"").append(ChessState.moveName(move)).append('"');
+		sb.append(",\"score\":").append(score);
+		sb.append(",\"depth\":").append(depth);
+		sb.append(",\"maxPly\":").append(maxPly);
+		sb.append(",\"nodes\":").append(nodes);
+		sb.append(",\"qnodes\":").append(qnodes);
+		sb.append(",\"leaves\":").append(leaves);
+		sb.append(",\"betaCutoffs\":").append(betaCutoffs);
+		sb.append(",\"tablebaseHits\":").append(tablebaseHits);
+		sb.append(",\"firstMoveCutoffRate\":").append(String.format(Locale.ROOT, "%.4f", firstMoveCutoffRate()));
+		sb.append(",\"branchingFactor\":").append(String.format(Locale.ROOT, "%.3f", branchingFactor()));
+		sb.append(",\"effectiveBranchingFactor\":").append(String.format(Locale.ROOT, "%.3f", effectiveBranchingFactor()));
+		sb.append(",\"researchRate\":").append(String.format(Locale.ROOT, "%.4f", researchRate()));
+		sb.append(",\"elapsedMs\":").append(String.format(Locale.ROOT, "%.3f", elapsedNanos / 1e6));
+		sb.append(",\"nodesPerSecond\":").append(Math.round(nodesPerSecond()));
+		sb.append(",\"msPerDepth\":[");
+		for (int d = 1; d <= depth; d++)
+		{
+			if (d > 1)
+			{ sb.append(','); }
+			sb.append(String.format(Locale.ROOT, "%.3f", iterationNanos[d] / 1e6));
+		}
+		sb.append("],\"nodesPerDepth\":[");
+		for (int d = 1; d <= depth; d++)
+		{
+			if (d > 1)
+			{ sb.append(','); }
+			sb.append(iterationNodes[d]);
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,371 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/// The outcome of every position with one set of pieces, under this game's
+/// rules: taking the king wins, and pawns always promote to queens. A table
+/// is named by its pieces, the strong side first, such as KQKR. In the table
+/// the strong side is white and its pawns move up the board; Tablebases
+/// mirrors positions where the strong side is black.
+///
+/// Each position is one byte: 0 for a draw, 1-127 for a win in 1, 3, 5...
+/// plies and 128-255 for a loss in 2, 4, 6... plies, counted to the capture
+/// of a king, for the player to move. Positions are indexed by the square of
+/// each piece in name order, then the player to move (white first).
+///
+/// The file is a 16-byte header (magic "MMTB", version, piece count and four
+/// reserved bytes) followed by the bytes, and is memory-mapped to probe it.
+class Tablebase
+{
+	static final int MAGIC = ('M' << 24) | ('M' << 16) | ('T' << 8) | 'B';
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 16;
+	static final int DRAW = 0;
+	/// Letters of the piece types, indexed by the ChessState piece constants
+	static final String PIECE_LETTERS = " PRNBQK";
+
+	String m_name;
+	/// Piece types in name order
+	int[] m_types;
+	/// For each piece, true if it belongs to the strong side
+	boolean[] m_white;
+	/// Each side's pieces, counted in 4 bits per type, to match positions with tables
+	int m_strongMaterial;
+	int m_weakMaterial;
+	int m_size;
+	ByteBuffer m_values;
+
+	Tablebase(String name)
+	{
+		int split = name.indexOf('K', 1);
+		if (! name.startsWith("K") || split < 0 || name.length() > Tablebases.MAX_PIECES)
+		{ throw new IllegalArgumentException("Bad tablebase name " + name); }
+		m_name = name;
+		m_types = new int[name.length()];
+		m_white = new boolean[name.length()];
+		for (int k = 0; k < name.length(); k++)
+		{
+			m_types[k] = PIECE_LETTERS.indexOf(name.charAt(k));
+			if (m_types[k] <= 0)
+			{ throw new IllegalArgumentException("Bad tablebase name " + name); }
+			m_white[k] = k < split;
+			if (m_white[k])
+			{ m_strongMaterial += 1 << (4 * m_types[k]); }
+			else
+			{ m_weakMaterial += 1 << (4 * m_types[k]); }
+		}
+		m_size = 2 << (6 * name.length());
+	}
+
+	static int encodeWin(int plies)
+	{
+		return (plies + 1) / 2;
+	}
+
+	static int encodeLoss(int plies)
+	{
+		return 127 + plies / 2;
+	}
+
+	static boolean isWin(int value)
+	{
+		return value >= 1 && value <= 127;
+	}
+
+	static boolean isLoss(int value)
+	{
+		return value >= 128;
+	}
+
+	/// Plies until a king is taken, or 0 for a draw
+	static int plies(int value)
+	{
+		if (value == DRAW)
+		{ return 0; }
+		return value <= 127 ? 2 * value - 1 : 2 * (value - 127);
+	}
+
+	int index(int[] squares, boolean whiteToMove)
+	{
+		int index = 0;
+		for (int k = 0; k < m_types.length; k++)
+		{ index = index * 64 + squares[k]; }
+		return index * 2 + (whiteToMove ? 0 : 1);
+	}
+
+	/// Returns the value of the position with the pieces on squares, in name
+	/// order, from the point of view of the player to move
+	int probe(int[] squares, boolean whiteToMove)
+	{
+		return m_values.get(index(squares, whiteToMove)) & 0xFF;
+	}
+
+	/// Fills squares from index and returns false if that is not a position
+	/// that can happen: two pieces on one square, or a pawn on its first or
+	/// last row
+	private boolean decode(int index, int[] squares)
+	{
+		int rest = index >> 1;
+		long seen = 0;
+		for (int k = m_types.length - 1; k >= 0; k--)
+		{
+			int sq = rest & 63;
+			rest >>= 6;
+			if ((seen & (1L << sq)) != 0)
+			{ return false; }
+			if (m_types[k] == ChessState.Pawn && ((sq >> 3) == 0 || (sq >> 3) == 7))
+			{ return false; }
+			seen |= 1L << sq;
+			squares[k] = sq;
+		}
+		return true;
+	}
+
+	/// Squares a piece attacks or can move to, before removing its own side's pieces
+	private static long attacks(int type, int sq, boolean white, long occupied, long enemy)
+	{
+		switch (type)
+		{
+			case ChessState.Pawn:
+			{
+				int push = white ? sq + 8 : sq - 8;
+				long bb = Bitboards.PAWN_ATTACKS[white ? 1 : 0][sq] & enemy;
+				if ((occupied & (1L << push)) == 0)
+				{
+					bb |= 1L << push;
+					int dbl = white ? sq + 16 : sq - 16;
+					if ((sq >> 3) == (white ? 1 : 6) && (occupied & (1L << dbl)) == 0)
+					{ bb |= 1L << dbl; }
+				}
+				return bb;
+			}
+			case ChessState.Rook:
+				return Bitboards.rookAttacks(sq, occupied);
+			case ChessState.Knight:
+				return Bitboards.KNIGHT_ATTACKS[sq];
+			case ChessState.Bishop:
+				return Bitboards.bishopAttacks(sq, occupied);
+			case ChessState.Queen:
+				return Bitboards.queenAttacks(sq, occupied);
+			default:
+				return Bitboards.KING_ATTACKS[sq];
+		}
+	}
+
+	/// Empty squares that the piece on sq could have come from with a move
+	/// that captured nothing
+	private static long sources(int type, int sq, boolean white, long occupied)
+	{
+		if (type != ChessState.Pawn)
+		{ return attacks(type, sq, white, occupied, 0) & ~ occupied; }
+		int from = white ? sq - 8 : sq + 8;
+		if ((from >> 3) == 0 || (from >> 3) == 7 || (occupied & (1L << from)) != 0)
+		{ return 0; }
+		long bb = 1L << from;
+		if ((sq >> 3) == (white ? 3 : 4))
+		{
+			int dbl = white ? sq - 16 : sq + 16;
+			if ((occupied & (1L << dbl)) == 0)
+			{ bb |= 1L << dbl; }
+		}
+		return bb;
+	}
+
+	/// Solves the table by retrograde analysis. Positions where the player to
+	/// move can take the king are wins in 1, and captures and promotions
+	/// that lead out of this table are looked up in subs, which must already
+	/// hold those tables. Then, one distance at a time, every position whose
+	/// value is known is unmade: the positions before a loss are wins, and a
+	/// position all of whose moves lead to wins for the opponent is a loss.
+	/// Whatever is left is a draw.
+	void generate(Tablebases subs)
+	{
+		int n = m_types.length;
+		byte[] values = new byte[m_size];
+		// Moves that stay in this table and are not yet known to lose
+		byte[] open = new byte[m_size];
+		// Fastest win through a capture or promotion, in plies, or 0
+		byte[] exitWin = new byte[m_size];
+		// Slowest loss through a capture or promotion, in plies, or noLoss
+		// if one of them does not lose
+		byte[] exitLoss = new byte[m_size];
+		final int noLoss = 255;
+		int[] squares = new int[n];
+		int[] subTypes = new int[n];
+		boolean[] subWhite = new boolean[n];
+		int[] subSquares = new int[n];
+		// The longest distance found so far, which the loop below runs up to
+		int maxPlies = 1;
+
+		for (int i = 0; i < m_size; i++)
+		{
+			if (! decode(i, squares))
+			{ continue; }
+			boolean whiteToMove = (i & 1) == 0;
+			long own = 0;
+			long enemy = 0;
+			for (int k = 0; k < n; k++)
+			{
+				if (m_white[k] == whiteToMove)
+				{ own |= 1L << squares[k]; }
+				else
+				{ enemy |= 1L << squares[k]; }
+			}
+			int moves = 0;
+			int win = 0;
+			int loss = 0;
+			for (int k = 0; k < n && win != 1; k++)
+			{
+				if (m_white[k] != whiteToMove)
+				{ continue; }
+				long targets = attacks(m_types[k], squares[k], whiteToMove, own | enemy, enemy) & ~ own;
+				while (targets != 0)
+				{
+					int to = Long.numberOfTrailingZeros(targets);
+					targets &= targets - 1;
+					int captured = - 1;
+					for (int c = 0; c < n; c++)
+					{
+						if (squares[c] == to && m_white[c] != whiteToMove)
+						{ captured = c; }
+					}
+					if (captured >= 0 && m_types[captured] == ChessState.King)
+					{
+						win = 1;
+						break;
+					}
+					boolean promotes = m_types[k] == ChessState.Pawn && (to >> 3) == (whiteToMove ? 7 : 0);
+					if (captured < 0 && ! promotes)
+					{
+						moves++;
+						continue;
+					}
+					int count = 0;
+					for (int c = 0; c < n; c++)
+					{
+						if (c == captured)
+						{ continue; }
+						subTypes[count] = c == k && promotes ? ChessState.Queen : m_types[c];
+						subWhite[count] = m_white[c];
+						subSquares[count] = c == k ? to : squares[c];
+						count++;
+					}
+					int value = subs.probe(subTypes, subWhite, subSquares, count, ! whiteToMove);
+					if (value < 0)
+					{ throw new IllegalStateException("Solving " + m_name + " needs the table for what is left after a capture or promotion"); }
+					if (isLoss(value))
+					{ win = win == 0 ? plies(value) + 1 : Math.min(win, plies(value) + 1); }
+					else if (isWin(value) && loss != noLoss)
+					{ loss = Math.max(loss, plies(value)); }
+					else
+					{ loss = noLoss; }
+				}
+			}
+			if (win == 1)
+			{
+				values[i] = (byte) encodeWin(1);
+				continue;
+			}
+			if (win != 0)
+			{ loss = noLoss; }
+			open[i] = (byte) moves;
+			exitWin[i] = (byte) win;
+			exitLoss[i] = (byte) loss;
+			if (moves == 0 && loss != noLoss && loss != 0)
+			{
+				values[i] = (byte) encodeLoss(loss + 1);
+				maxPlies = Math.max(maxPlies, loss + 1);
+			}
+			maxPlies = Math.max(maxPlies, win);
+		}
+
+		for (int plies = 1; plies <= maxPlies; plies++)
+		{
+			if (plies >= 253)
+			{ throw new IllegalStateException(m_name + " has positions too long to store"); }
+			boolean winning = plies % 2 == 1;
+			int target = winning ? encodeWin(plies) : encodeLoss(plies);
+			if (winning)
+			{
+				for (int i = 0; i < m_size; i++)
+				{
+					if (values[i] == 0 && (exitWin[i] & 0xFF) == plies)
+					{ values[i] = (byte) target; }
+				}
+			}
+			for (int i = 0; i < m_size; i++)
+			{
+				if ((values[i] & 0xFF) != target)
+				{ continue; }
+				decode(i, squares);
+				boolean whiteToMove = (i & 1) == 0;
+				long occupied = 0;
+				for (int k = 0; k < n; k++)
+				{ occupied |= 1L << squares[k]; }
+				// The player who is not to move made the last move
+				for (int k = 0; k < n; k++)
+				{
+					if (m_white[k] == whiteToMove)
+					{ continue; }
+					int sq = squares[k];
+					long from = sources(m_types[k], sq, ! whiteToMove, occupied);
+					while (from != 0)
+					{
+						squares[k] = Long.numberOfTrailingZeros(from);
+						from &= from - 1;
+						int j = index(squares, ! whiteToMove);
+						if (values[j] != 0)
+						{ continue; }
+						if (! winning)
+						{ values[j] = (byte) encodeWin(plies + 1); }
+						else if (-- open[j] == 0 && (exitLoss[j] & 0xFF) != noLoss)
+						{ values[j] = (byte) encodeLoss(1 + Math.max(plies, exitLoss[j] & 0xFF)); }
+						else
+						{ continue; }
+						maxPlies = Math.max(maxPlies, plies(values[j] & 0xFF));
+					}
+					squares[k] = sq;
+				}
+			}
+		}
+		m_values = ByteBuffer.wrap(values);
+	}
+
+	void write(Path file) throws IOException
+	{
+		try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).putInt(m_types.length).putInt(0);
+			header.flip();
+			while (header.hasRemaining())
+			{ out.write(header); }
+			ByteBuffer values = m_values.duplicate();
+			values.clear();
+			while (values.hasRemaining())
+			{ out.write(values); }
+		}
+	}
+
+	/// Maps a table written by write
+	static Tablebase load(String name, Path file) throws IOException
+	{
+		Tablebase table = new Tablebase(name);
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if (in.size() != HEADER_BYTES + table.m_size)
+			{ throw new IOException(file + " is not a " + name + " table"); }
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining() && in.read(header) >= 0)
+			{
+			}
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != table.m_types.length)
+			{ throw new IOException(file + " is not a " + name + " table"); }
+			table.m_values = in.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, table.m_size);
+		}
+		return table;
+	}
+}
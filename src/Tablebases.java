@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/// The endgame tables that are available, and lookups that find the right
+/// one for a position whichever side has the extra material. Probing only
+/// reads the mapped tables, so one Tablebases can serve every search thread.
+class Tablebases
+{
+	/// Every table, each after the tables its captures and promotions lead to
+	static final String[] NAMES = {"KK", "KQK", "KRK", "KPK", "KQKR"};
+	/// The most pieces in any table
+	static final int MAX_PIECES = 4;
+
+	ArrayList<Tablebase> m_tables = new ArrayList<Tablebase>();
+
+	/// Solves every table in order and writes each to dir as NAME.tb
+	static Tablebases build(String dir) throws IOException
+	{
+		Files.createDirectories(Paths.get(dir));
+		Tablebases tables = new Tablebases();
+		for (String name : NAMES)
+		{
+			long start = System.nanoTime();
+			Tablebase table = new Tablebase(name);
+			table.generate(tables);
+			table.write(Paths.get(dir, name + ".tb"));
+			tables.m_tables.add(table);
+			System.out.printf("%s: %d positions in %.1f s%n", name, table.m_size, (System.nanoTime() - start) / 1e9);
+		}
+		return tables;
+	}
+
+	/// Maps the tables found in dir. Tables that are not there are skipped.
+	static Tablebases load(String dir) throws IOException
+	{
+		Tablebases tables = new Tablebases();
+		for (String name : NAMES)
+		{
+			Path file = Paths.get(dir, name + ".tb");
+			if (Files.exists(file))
+			{ tables.m_tables.add(Tablebase.load(name, file)); }
+		}
+		if (tables.m_tables.isEmpty())
+		{ throw new IOException("There are no tablebases in " + dir); }
+		return tables;
+	}
+
+	/// Returns the Tablebase value of board for the player to move, or -1 if
+	/// no table has its pieces. Reads the board's bitboards and allocates
+	/// nothing, so the search can probe at every node.
+	int probe(ChessState board, boolean white)
+	{
+		if (Long.bitCount(board.m_colors[0] | board.m_colors[1]) > MAX_PIECES)
+		{ return - 1; }
+		int whiteMaterial = 0;
+		int blackMaterial = 0;
+		for (int type = ChessState.Pawn; type <= ChessState.King; type++)
+		{
+			whiteMaterial += Long.bitCount(board.m_pieces[type | ChessState.WhiteMask]) << (4 * type);
+			blackMaterial += Long.bitCount(board.m_pieces[type]) << (4 * type);
+		}
+		Tablebase table = find(whiteMaterial, blackMaterial);
+		if (table == null)
+		{ return - 1; }
+		boolean flip = table.m_strongMaterial != whiteMaterial;
+		int index = 0;
+		long used = 0;
+		for (int k = 0; k < table.m_types.length; k++)
+		{
+			long bb = board.m_pieces[table.m_types[k] | (table.m_white[k] != flip ? ChessState.WhiteMask : 0)] & ~ used;
+			int sq = Long.numberOfTrailingZeros(bb);
+			used |= 1L << sq;
+			index = index * 64 + (flip ? sq ^ 56 : sq);
+		}
+		return table.m_values.get(index * 2 + (white != flip ? 0 : 1)) & 0xFF;
+	}
+
+	/// Returns the value for the player to move of the position with count
+	/// pieces of the given types, colors and squares, or -1 if no table has
+	/// those pieces
+	int probe(int[] types, boolean[] whites, int[] squares, int count, boolean whiteToMove)
+	{
+		int whiteMaterial = 0;
+		int blackMaterial = 0;
+		for (int p = 0; p < count; p++)
+		{
+			if (whites[p])
+			{ whiteMaterial += 1 << (4 * types[p]); }
+			else
+			{ blackMaterial += 1 << (4 * types[p]); }
+		}
+		Tablebase table = find(whiteMaterial, blackMaterial);
+		if (table == null)
+		{ return - 1; }
+		// Put the pieces in the table's order, mirrored top to bottom if the
+		// strong side is black so that its pawns move up
+		boolean flip = table.m_strongMaterial != whiteMaterial;
+		int[] tableSquares = new int[table.m_types.length];
+		long used = 0;
+		for (int k = 0; k < table.m_types.length; k++)
+		{
+			for (int p = 0; p < count; p++)
+			{
+				if (types[p] == table.m_types[k] && whites[p] == (table.m_white[k] != flip) && (used & (1L << squares[p])) == 0)
+				{
+					used |= 1L << squares[p];
+					tableSquares[k] = flip ? squares[p] ^ 56 : squares[p];
+					break;
+				}
+			}
+		}
+		return table.probe(tableSquares, whiteToMove != flip);
+	}
+
+	/// The table for the given material, counted as in Tablebase, with
+	/// either side as the strong one, or null
+	private Tablebase find(int whiteMaterial, int blackMaterial)
+	{
+		for (Tablebase table : m_tables)
+		{
+			if ((table.m_strongMaterial == whiteMaterial && table.m_weakMaterial == blackMaterial)
+					|| (table.m_strongMaterial == blackMaterial && table.m_weakMaterial == whiteMaterial))
+			{ return table; }
+		}
+		return null;
+	}
+
+	/// Returns the best move for the player to move, packed, or 0 if the
+	/// position is not in the tables or every move repeats a position in
+	/// beenThere. Wins are won as fast as possible and losses put off as long
+	/// as possible.
+	int bestMove(ChessState board, boolean white, PositionHistory beenThere)
+	{
+		if (Long.bitCount(board.m_colors[0] | board.m_colors[1]) > MAX_PIECES || probe(board, white) < 0)
+		{ return 0; }
+		ChessState copy = new ChessState(board);
+		int[] moves = new int[ChessSearch.MAX_MOVES];
+		int count = copy.generateMoves(white, moves);
+		int bestMove = 0;
+		int bestRank = Integer.MIN_VALUE;
+		for (int i = 0; i < count; i++)
+		{
+			int m = moves[i];
+			copy.makeMove(m);
+			int rank;
+			if (copy.kingCaptured)
+			{ rank = Integer.MAX_VALUE; }
+			else if (beenThere.contains(copy.hashKey(! white)))
+			{ rank = Integer.MIN_VALUE; }
+			else
+			{
+				// The opponent's value after the move: their loss is our win
+				int value = probe(copy, ! white);
+				if (value < 0)
+				{ rank = Integer.MIN_VALUE; }
+				else if (Tablebase.isLoss(value))
+				{ rank = 1000 - Tablebase.plies(value); }
+				else if (Tablebase.isWin(value))
+				{ rank = - 1000 + Tablebase.plies(value); }
+				else
+				{ rank = 0; }
+			}
+			copy.unmakeMove(m);
+			if (rank > bestRank)
+			{
+				bestRank = rank;
+				bestMove = m;
+			}
+		}
+		return bestRank == Integer.MIN_VALUE ? 0 : bestMove;
+	}
+}
@@ -0,0 +1,279 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/// Plays many AI-vs-AI games between two players, A and B, on a thread pool,
+/// without printing boards, and reports how they did against each other.
+///
+/// Games are played in pairs from the same opening with the colors swapped,
+/// so that neither player profits from a lucky opening. Each opening is
+/// either a number of random plies or a line from an openings file. A game
+/// that reaches the ply cap, or in which the player to move has nothing but
+/// repetitions left, is a draw.
+class Tournament
+{
+	static final int A_WINS = 0;
+	static final int B_WINS = 1;
+	static final int DRAW = 2;
+
+	EngineOptions m_options;
+	ChessSearch.Limits m_limitsA;
+	ChessSearch.Limits m_limitsB;
+	/// Games played at once
+	int m_concurrency = Runtime.getRuntime().availableProcessors();
+	/// Plies after which a game is called a draw
+	int m_maxPlies = 300;
+	/// Random plies played before the engines take over, when there is no openings file
+	int m_openingPlies = 4;
+	/// Openings as lists of moves in the form the players type them, or null
+	ArrayList<String[]> m_openings;
+	/// Every game is appended here if it is not null
+	GameLog m_gameLog;
+	/// The searches for A and B of each game thread. They are made once per
+	/// thread and cleared between games, since each holds a transposition
+	/// table and, with --threads, a thread pool of its own.
+	ThreadLocal<ChessSearch[]> m_searches = ThreadLocal.withInitial(this::newSearches);
+	/// Every search made, so that run() can close them at the end
+	ArrayList<ChessSearch> m_allSearches = new ArrayList<ChessSearch>();
+
+	/// The outcome of one game
+	static class Game
+	{
+		int index;
+		boolean aIsWhite;
+		int result;
+		int plies;
+		/// Engine moves and the time and nodes they took, indexed [A, B]
+		int[] moves = new int[2];
+		long[] nanos = new long[2];
+		long[] nodes = new long[2];
+	}
+
+	Tournament(EngineOptions options, ChessSearch.Limits limitsA, ChessSearch.Limits limitsB)
+	{
+		m_options = options;
+		m_limitsA = limitsA;
+		m_limitsB = limitsB;
+	}
+
+	/// Reads one opening per line, such as "E2E4 E7E5". Blank lines and lines
+	/// starting with # are skipped.
+	void readOpenings(String fileName) throws FileNotFoundException
+	{
+		m_openings = new ArrayList<String[]>();
+		try (Scanner sc = new Scanner(new File(fileName)))
+		{
+			while (sc.hasNextLine())
+			{
+				String line = sc.nextLine().trim();
+				if (! line.isEmpty() && ! line.startsWith("#"))
+				{ m_openings.add(line.split("\\s+")); }
+			}
+		}
+		if (m_openings.isEmpty())
+		{ throw new IllegalArgumentException(fileName + " has no openings"); }
+	}
+
+	/// Plays the games and prints a line per game and a summary at the end
+	void run(int games) throws InterruptedException
+	{
+		SplittableRandom seeds = m_options.seed != null ? new SplittableRandom(m_options.seed) : new SplittableRandom();
+		ExecutorService pool = Executors.newFixedThreadPool(m_concurrency);
+		try
+		{
+			runGames(games, seeds, pool);
+		} finally
+		{
+			pool.shutdownNow();
+			synchronized (m_allSearches)
+			{
+				for (ChessSearch search : m_allSearches)
+				{ search.close(); }
+				m_allSearches.clear();
+			}
+		}
+	}
+
+	/// Plays the games on pool and prints the results
+	private void runGames(int games, SplittableRandom seeds, ExecutorService pool) throws InterruptedException
+	{
+		ArrayList<Future<Game>> futures = new ArrayList<Future<Game>>();
+		long start = System.nanoTime();
+		long seed = 0;
+		for (int i = 0; i < games; i++)
+		{
+			// Both games of a pair get the same opening and the same search seeds
+			if (i % 2 == 0)
+			{ seed = seeds.nextLong(); }
+			long pairSeed = seed;
+			int index = i;
+			futures.add(pool.submit(() -> play(index, index % 2 == 0, pairSeed)));
+		}
+
+		Game[] results = new Game[games];
+		for (int i = 0; i < games; i++)
+		{
+			try
+			{
+				results[i] = futures.get(i).get();
+			} catch (ExecutionException e)
+			{
+				throw new RuntimeException("Game " + (i + 1) + " failed", e.getCause());
+			}
+		}
+		printSummary(results, System.nanoTime() - start);
+	}
+
+	/// Plays game number index to the end. seed picks the opening and seeds both searches.
+	Game play(int index, boolean aIsWhite, long seed) throws IOException
+	{
+		SplittableRandom rand = new SplittableRandom(seed);
+		Game game = new Game();
+		game.index = index;
+		game.aIsWhite = aIsWhite;
+		ChessSearch[] searches = m_searches.get();
+		ChessSearch searchA = searches[0];
+		ChessSearch searchB = searches[1];
+		searchA.newGame();
+		searchB.newGame();
+		ChessState board = new ChessState();
+		PositionHistory beenThere = new PositionHistory();
+		boolean white = true;
+		GameRecord record = new GameRecord(aIsWhite ? m_limitsA.depth : m_limitsB.depth, aIsWhite ? m_limitsB.depth : m_limitsA.depth);
+
+		int openingIndex = rand.nextInt(Integer.MAX_VALUE);
+		searchA.setSeed(rand.nextLong());
+		searchB.setSeed(rand.nextLong());
+		if (m_openings != null)
+		{
+			for (String move : m_openings.get(openingIndex % m_openings.size()))
+			{
+				if (move.length() != 4)
+				{ throw new IllegalArgumentException("Bad opening move " + move); }
+				int xs = Character.toUpperCase(move.charAt(0)) - 'A';
+				int ys = move.charAt(1) - '1';
+				int xd = Character.toUpperCase(move.charAt(2)) - 'A';
+				int yd = move.charAt(3) - '1';
+				if (! board.isValidMove(xs, ys, xd, yd) || board.isWhite(xs, ys) != white)
+				{ throw new IllegalArgumentException("Opening move " + move + " is not legal"); }
+				board.move(xs, ys, xd, yd);
+				record.add(xs, ys, xd, yd);
+				white = ! white;
+				beenThere.push(board.hashKey(white));
+				game.plies++;
+			}
+		}
+		else
+		{
+			for (int i = 0; i < m_openingPlies; i++)
+			{
+				ArrayList<ChessState.ChessMove> moves = new ArrayList<ChessState.ChessMove>();
+				ChessState.ChessMoveIterator it = board.iterator(white);
+				while (it.hasNext())
+				{
+					ChessState.ChessMove m = it.next();
+					if (board.getPiece(m.xDest, m.yDest) != ChessState.King)
+					{ moves.add(m); }
+				}
+				ChessState.ChessMove m = moves.get(rand.nextInt(moves.size()));
+				board.move(m.xSource, m.ySource, m.xDest, m.yDest);
+				record.add(m.xSource, m.ySource, m.xDest, m.yDest);
+				white = ! white;
+				beenThere.push(board.hashKey(white));
+				game.plies++;
+			}
+		}
+
+		game.result = DRAW;
+		while (game.plies < m_maxPlies)
+		{
+			boolean aToMove = white == aIsWhite;
+			ChessSearch search = aToMove ? searchA : searchB;
+			int[] best = search.search(board, white, beenThere, aToMove ? m_limitsA : m_limitsB);
+			SearchStats stats = search.stats();
+			int side = aToMove ? 0 : 1;
+			game.moves[side]++;
+			game.nanos[side] += stats.elapsedNanos;
+			game.nodes[side] += stats.nodes + stats.qnodes;
+			// Every move repeats a position, so the search found nothing to play
+			if (! board.isValidMove(best[1], best[2], best[3], best[4]))
+			{ break; }
+			game.plies++;
+			record.add(best[1], best[2], best[3], best[4]);
+			if (board.move(best[1], best[2], best[3], best[4]))
+			{
+				game.result = aToMove ? A_WINS : B_WINS;
+				break;
+			}
+			white = ! white;
+			beenThere.push(board.hashKey(white));
+		}
+		if (m_gameLog != null)
+		{
+			boolean whiteWon = (game.result == A_WINS) == aIsWhite;
+			record.m_result = game.result == DRAW ? GameRecord.DRAW : whiteWon ? GameRecord.WHITE_WON : GameRecord.BLACK_WON;
+			m_gameLog.write(record);
+		}
+		synchronized (this)
+		{
+			String outcome = game.result == DRAW ? "draw" : game.result == A_WINS ? "A wins" : "B wins";
+			System.out.printf("Game %d: A is %s, %s after %d plies%n", index + 1, aIsWhite ? "white" : "black", outcome, game.plies);
+		}
+		return game;
+	}
+
+	/// Makes the pair of searches for a game thread
+	private ChessSearch[] newSearches()
+	{
+		ChessSearch[] searches = {m_options.newSearch(), m_options.newSearch()};
+		synchronized (m_allSearches)
+		{
+			m_allSearches.add(searches[0]);
+			m_allSearches.add(searches[1]);
+		}
+		return searches;
+	}
+
+	private void printSummary(Game[] games, long elapsed)
+	{
+		int[] results = new int[3];
+		int[] aAsWhite = new int[3];
+		int[] moves = new int[2];
+		long[] nanos = new long[2];
+		long[] nodes = new long[2];
+		long plies = 0;
+		for (Game g : games)
+		{
+			results[g.result]++;
+			if (g.aIsWhite)
+			{ aAsWhite[g.result]++; }
+			plies += g.plies;
+			for (int side = 0; side < 2; side++)
+			{
+				moves[side] += g.moves[side];
+				nanos[side] += g.nanos[side];
+				nodes[side] += g.nodes[side];
+			}
+		}
+		int n = games.length;
+		System.out.println();
+		System.out.printf("%d games in %.1f s%n", n, elapsed / 1e9);
+		System.out.printf("A wins %d, B wins %d, draws %d: A scores %.1f%%%n", results[A_WINS], results[B_WINS], results[DRAW],
+				n == 0 ? 0 : 100.0 * (results[A_WINS] + 0.5 * results[DRAW]) / n);
+		System.out.printf("A as white: %d wins, %d losses, %d draws%n", aAsWhite[A_WINS], aAsWhite[B_WINS], aAsWhite[DRAW]);
+		System.out.printf("Average game length: %.1f plies%n", n == 0 ? 0 : (double) plies / n);
+		String[] names = {"A", "B"};
+		for (int side = 0; side < 2; side++)
+		{
+			System.out.printf("%s: %.1f ms per move, %.0f nodes per game%n", names[side],
+					moves[side] == 0 ? 0 : nanos[side] / 1e6 / moves[side], n == 0 ? 0 : (double) nodes[side] / n);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+/// A fixed-size hash table of search results keyed by Zobrist hash. The
+/// number of entries is a power of two so that a key maps to its slot with a
+/// mask. Each entry is two longs: the data packed as score (bits 0-31), move
+/// (bits 32-44), depth (bits 45-52), bound (bits 53-54) and generation (bits
+/// 55-62), and the key XORed with the data.
+///
+/// A game keeps one table from move to move. Instead of clearing it, each
+/// search calls age(), and entries from earlier searches stay readable but
+/// give way to new ones whatever their depth.
+///
+/// Several threads may probe and store at once without locks. If two stores
+/// to a slot interleave, the key and data no longer match and probe treats
+/// the slot as empty, so a torn entry is never returned.
+class TranspositionTable
+{
+	public static final int EXACT = 1;
+	/// The score is a lower bound: the search failed high
+	public static final int LOWER = 2;
+	/// The score is an upper bound: no move raised alpha
+	public static final int UPPER = 3;
+
+	/// Always overwrite the slot
+	public static final int ALWAYS_REPLACE = 0;
+	/// Keep the existing entry if it was searched deeper than the new one
+	public static final int DEPTH_PREFERRED = 1;
+
+	private static final int ENTRY_BYTES = 16;
+
+	long[] m_keys;
+	long[] m_data;
+	int m_mask;
+	int m_policy;
+	/// Stamped on every store; entries with another generation are stale
+	int m_generation;
+
+	TranspositionTable(int sizeMb, int policy)
+	{
+		if (sizeMb < 1)
+		{ throw new IllegalArgumentException("The transposition table needs at least 1 MB"); }
+		if (policy != ALWAYS_REPLACE && policy != DEPTH_PREFERRED)
+		{ throw new IllegalArgumentException("Unknown replacement policy " + policy); }
+		long entries = Long.highestOneBit(((long) sizeMb << 20) / ENTRY_BYTES);
+		if (entries > (1 << 30))
+		{ entries = 1 << 30; }
+		m_keys = new long[(int) entries];
+		m_data = new long[(int) entries];
+		m_mask = (int) entries - 1;
+		m_policy = policy;
+	}
+
+	/// Forgets every stored position
+	void clear()
+	{
+		Arrays.fill(m_keys, 0);
+		Arrays.fill(m_data, 0);
+	}
+
+	/// Starts a new search: everything stored so far becomes stale
+	void age()
+	{
+		m_generation = (m_generation + 1) & 0xFF;
+	}
+
+	/// Returns the packed data stored for key, or 0 if there is none
+	long probe(long key)
+	{
+		int i = (int) key & m_mask;
+		long data = m_data[i];
+		return (m_keys[i] ^ data) == key ? data : 0;
+	}
+
+	void store(long key, int depth, int bound, int score, int move)
+	{
+		int i = (int) key & m_mask;
+		long old = m_data[i];
+		if (m_policy == DEPTH_PREFERRED && old != 0 && depth(old) > depth && generation(old) == m_generation)
+		{ return; }
+		long data = (score & 0xFFFFFFFFL) | ((long) (move & 0x1FFF) << 32) | ((long) (depth & 0xFF) << 45) | ((long) bound << 53)
+				| ((long) m_generation << 55);
+		m_keys[i] = key ^ data;
+		m_data[i] = data;
+	}
+
+	static int score(long data)
+	{
+		return (int) data;
+	}
+
+	static int move(long data)
+	{
+		return (int) (data >>> 32) & 0x1FFF;
+	}
+
+	static int depth(long data)
+	{
+		return (int) (data >>> 45) & 0xFF;
+	}
+
+	static int bound(long data)
+	{
+		return (int) (data >>> 53) & 3;
+	}
+
+	static int generation(long data)
+	{
+		return (int) (data >>> 55) & 0xFF;
+	}
+}
@@ -0,0 +1,30 @@
+#!/bin/bash
+# Plays a console game in each human-vs-AI mode with --record, then replays
+# the log and checks that both games were saved. Run from this directory.
+#
+# The game reads the menu choice and the moves through separate Scanners on
+# System.in, so each line is sent on its own after a pause; piped all at
+# once, the first Scanner would take every line.
+set -e
+mkdir -p out
+javac -d out ../src/*.java
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+cd "$work"
+
+fail()
+{
+	echo "FAIL: $1"
+	exit 1
+}
+
+# Human is white against a depth 2 AI, then the AI is white against the
+# human. Both games are quit after one move each.
+{ echo 2; sleep 2; echo A2A3; sleep 3; echo q; } | java -cp "$OLDPWD/out" ChessState --record games.log 0 2 > player_vs_ai.txt
+grep -q "The game was not finished" player_vs_ai.txt || fail "PlayerVsAI did not report the unfinished game"
+{ echo 2; sleep 3; echo A7A6; sleep 3; echo q; } | java -cp "$OLDPWD/out" ChessState --record games.log 2 0 > ai_vs_player.txt
+grep -q "The game was not finished" ai_vs_player.txt || fail "AIvsPlayer did not report the unfinished game"
+
+java -cp "$OLDPWD/out" ChessState replay games.log > replay.txt
+grep -q "^2 games" replay.txt || fail "expected 2 games in the log: $(head -1 replay.txt)"
+echo "ok"